@@ -16,12 +16,7 @@
 
 package org.cyanogenmod.hardware;
 
-import org.cyanogenmod.hardware.util.FileUtils;
-
-import android.os.SystemProperties;
-import android.text.TextUtils;
-
-import java.io.File;
+import java.util.concurrent.Future;
 
 /**
  * Adaptive backlight support (this refers to technologies like NVIDIA SmartDimmer,
@@ -29,16 +24,13 @@ import java.io.File;
  */
 public class AdaptiveBacklight {
 
-    private static String FILE_CABC = SystemProperties.get("ro.cm.hardware.cabc", "/sys/class/lcd/panel/power_reduce");
-
     /**
      * Whether device supports an adaptive backlight technology.
      *
      * @return boolean Supported devices must return always true
      */
     public static boolean isSupported() {
-        File f = new File(FILE_CABC);
-        return f.exists();
+        return SamsungHardware.getDefault().isAdaptiveBacklightSupported();
     }
 
     /**
@@ -48,11 +40,7 @@ public class AdaptiveBacklight {
      * the operation failed while reading the status; true in any other case.
      */
     public static boolean isEnabled() {
-        if (TextUtils.equals(FileUtils.readOneLine(FILE_CABC), "1")) {
-            return true;
-        } else {
-            return false;
-        }
+        return SamsungHardware.getDefault().isAdaptiveBacklightEnabled();
     }
 
     /**
@@ -63,10 +51,24 @@ public class AdaptiveBacklight {
      * failed; true in any other case.
      */
     public static boolean setEnabled(boolean status) {
-        if (status == true) {
-            return FileUtils.writeLine(FILE_CABC, "1");
-        } else {
-            return FileUtils.writeLine(FILE_CABC, "0");
-        }
+        return SamsungHardware.getDefault().setAdaptiveBacklightEnabled(status);
+    }
+
+    /**
+     * Asynchronous variant of {@link #isEnabled}, safe to call from the UI thread.
+     */
+    public static Future<Boolean> isEnabledAsync() {
+        return SamsungHardware.getDefault().isAdaptiveBacklightEnabledAsync();
+    }
+
+    /**
+     * Asynchronous variant of {@link #setEnabled}, safe to call from the UI thread.
+     *
+     * @param status The new adaptive backlight status
+     * @return Future completing with the result of {@link #setEnabled}, or cancelled if a
+     * newer status replaced this one before it was written.
+     */
+    public static Future<Boolean> setEnabledAsync(boolean status) {
+        return SamsungHardware.getDefault().setAdaptiveBacklightEnabledAsync(status);
     }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware;
+
+import android.os.SystemProperties;
+
+/**
+ * Where an on/off cmhw feature lives and how it is switched.
+ *
+ * Every on/off feature is one entry of {@link #TOGGLES}; {@link ToggleFeature}
+ * implements probing, reading and writing for all of them. Supporting a new
+ * feature of this kind only takes a FeatureProbe bit, an entry here and the
+ * matching public class.
+ */
+final class FeatureDescriptor {
+
+    /* A sysfs node holding onValue or offValue */
+    static final int KIND_SYSFS = 0;
+    /* A TSP command taking onValue or offValue as parameter */
+    static final int KIND_TSP_COMMAND = 1;
+
+    static final FeatureDescriptor[] TOGGLES = {
+        sysfs(FeatureProbe.ADAPTIVE_BACKLIGHT,
+                SystemProperties.get("ro.cm.hardware.cabc", "/sys/class/lcd/panel/power_reduce"),
+                1, 0),
+        // Writing 0 turns the keys off, so the disabler is active at 0
+        sysfs(FeatureProbe.KEY_DISABLER, "/sys/class/sec/sec_touchkey/keypad_enable", 0, 1),
+        tspCommand(FeatureProbe.HIGH_TOUCH_SENSITIVITY, "glove_mode"),
+        tspCommand(FeatureProbe.TOUCHSCREEN_HOVERING, "hover_enable"),
+    };
+
+    /* FeatureProbe bit */
+    final int feature;
+    final int kind;
+    /* Node path or command name */
+    final String target;
+    final int onValue;
+    /* Also assumed when the state cannot be read */
+    final int offValue;
+
+    private FeatureDescriptor(int feature, int kind, String target, int onValue, int offValue) {
+        this.feature = feature;
+        this.kind = kind;
+        this.target = target;
+        this.onValue = onValue;
+        this.offValue = offValue;
+    }
+
+    static FeatureDescriptor sysfs(int feature, String path, int onValue, int offValue) {
+        return new FeatureDescriptor(feature, KIND_SYSFS, path, onValue, offValue);
+    }
+
+    static FeatureDescriptor tspCommand(int feature, String command) {
+        return new FeatureDescriptor(feature, KIND_TSP_COMMAND, command, 1, 0);
+    }
+}
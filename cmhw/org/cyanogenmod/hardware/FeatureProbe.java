@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware;
+
+/**
+ * One-shot capability probe for all cmhw features.
+ *
+ * The filesystem checks of every feature run once, one after the other: each
+ * is a stat or a single short read, cheaper than starting a thread for it.
+ * The result is an immutable bitmask which isSupported() answers from.
+ */
+final class FeatureProbe {
+
+    static final int ADAPTIVE_BACKLIGHT = 1 << 0;
+    static final int KEY_DISABLER = 1 << 1;
+    static final int VIBRATOR = 1 << 2;
+    static final int HIGH_TOUCH_SENSITIVITY = 1 << 3;
+    static final int TOUCHSCREEN_HOVERING = 1 << 4;
+
+    static final int[] ALL_FEATURES = {
+        ADAPTIVE_BACKLIGHT,
+        KEY_DISABLER,
+        VIBRATOR,
+        HIGH_TOUCH_SENSITIVITY,
+        TOUCHSCREEN_HOVERING,
+    };
+
+    private FeatureProbe() {
+    }
+
+    static int probe(SamsungHardware hardware) {
+        int features = 0;
+        for (int feature : ALL_FEATURES) {
+            if (hardware.probe(feature)) {
+                features |= feature;
+            }
+        }
+        return features;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Desired state of all cmhw features, applied as one transaction.
+ *
+ * Only the features set in the profile, supported by the device and differing
+ * from their current state are written. Independent nodes are written in
+ * parallel; if any write fails, the features already changed are put back to
+ * their previous state.
+ */
+public final class HardwareProfile {
+
+    private static final String TAG = "HardwareProfile";
+
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, TAG);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /* FeatureProbe bits of the features this profile sets */
+    private final int mFeatures;
+    /* FeatureProbe bits of the on/off features to turn on */
+    private final int mEnabled;
+    private final int mVibratorIntensity;
+
+    private HardwareProfile(Builder builder) {
+        mFeatures = builder.mFeatures;
+        mEnabled = builder.mEnabled;
+        mVibratorIntensity = builder.mVibratorIntensity;
+    }
+
+    /**
+     * Profile holding the current state of every supported feature.
+     */
+    public static HardwareProfile current() {
+        return current(SamsungHardware.getDefault());
+    }
+
+    public static HardwareProfile current(SamsungHardware hardware) {
+        Builder builder = new Builder();
+        for (int feature : FeatureProbe.ALL_FEATURES) {
+            if (hardware.isSupported(feature)) {
+                builder.set(feature, read(hardware, feature));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Apply this profile, blocking until every write is done.
+     *
+     * @return true if the hardware now matches the profile; false if a write
+     * failed, in which case the changed features were rolled back
+     */
+    public boolean apply() {
+        return apply(SamsungHardware.getDefault());
+    }
+
+    public boolean apply(SamsungHardware hardware) {
+        List<Change> changes = new ArrayList<Change>();
+        for (int feature : FeatureProbe.ALL_FEATURES) {
+            if ((mFeatures & feature) == 0 || !hardware.isSupported(feature)) {
+                continue;
+            }
+            int previous = read(hardware, feature);
+            int target = get(feature);
+            if (previous != target) {
+                changes.add(new Change(hardware, feature, previous, target));
+            }
+        }
+        if (changes.isEmpty()) {
+            return true;
+        }
+
+        List<Future<Boolean>> results;
+        try {
+            results = sExecutor.invokeAll(changes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        boolean success = true;
+        List<Change> applied = new ArrayList<Change>();
+        for (int i = 0; i < changes.size(); i++) {
+            if (isSuccessful(results.get(i))) {
+                applied.add(changes.get(i));
+            } else {
+                Log.w(TAG, "Could not apply feature " + changes.get(i).mFeature);
+                success = false;
+            }
+        }
+        if (!success) {
+            for (Change change : applied) {
+                if (!write(hardware, change.mFeature, change.mPrevious)) {
+                    Log.e(TAG, "Could not roll back feature " + change.mFeature);
+                }
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Apply this profile in the background.
+     *
+     * @return Future completing with the result of {@link #apply}
+     */
+    public Future<Boolean> applyAsync() {
+        return sExecutor.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                return apply();
+            }
+        });
+    }
+
+    private int get(int feature) {
+        if (feature == FeatureProbe.VIBRATOR) {
+            return mVibratorIntensity;
+        }
+        return (mEnabled & feature) != 0 ? 1 : 0;
+    }
+
+    private static int read(SamsungHardware hardware, int feature) {
+        if (feature == FeatureProbe.VIBRATOR) {
+            return hardware.getVibratorCurIntensity();
+        }
+        return hardware.getToggle(feature).isEnabled() ? 1 : 0;
+    }
+
+    private static boolean write(SamsungHardware hardware, int feature, int value) {
+        if (feature == FeatureProbe.VIBRATOR) {
+            return hardware.applyVibratorIntensity(value);
+        }
+        // Both touchscreen features queue on the same TSP command thread
+        return hardware.getToggle(feature).setEnabled(value != 0);
+    }
+
+    private static boolean isSuccessful(Future<Boolean> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Feature write failed", e.getCause());
+            return false;
+        }
+    }
+
+    private static final class Change implements Callable<Boolean> {
+        final SamsungHardware mHardware;
+        final int mFeature;
+        final int mPrevious;
+        final int mTarget;
+
+        Change(SamsungHardware hardware, int feature, int previous, int target) {
+            mHardware = hardware;
+            mFeature = feature;
+            mPrevious = previous;
+            mTarget = target;
+        }
+
+        public Boolean call() {
+            return write(mHardware, mFeature, mTarget);
+        }
+    }
+
+    public static final class Builder {
+        private int mFeatures;
+        private int mEnabled;
+        private int mVibratorIntensity;
+
+        public Builder setAdaptiveBacklightEnabled(boolean enabled) {
+            return set(FeatureProbe.ADAPTIVE_BACKLIGHT, enabled ? 1 : 0);
+        }
+
+        public Builder setKeyDisablerActive(boolean active) {
+            return set(FeatureProbe.KEY_DISABLER, active ? 1 : 0);
+        }
+
+        public Builder setHighTouchSensitivityEnabled(boolean enabled) {
+            return set(FeatureProbe.HIGH_TOUCH_SENSITIVITY, enabled ? 1 : 0);
+        }
+
+        public Builder setTouchscreenHoveringEnabled(boolean enabled) {
+            return set(FeatureProbe.TOUCHSCREEN_HOVERING, enabled ? 1 : 0);
+        }
+
+        public Builder setVibratorIntensity(int intensity) {
+            return set(FeatureProbe.VIBRATOR, intensity);
+        }
+
+        public HardwareProfile build() {
+            return new HardwareProfile(this);
+        }
+
+        private Builder set(int feature, int value) {
+            mFeatures |= feature;
+            if (feature == FeatureProbe.VIBRATOR) {
+                mVibratorIntensity = value;
+            } else if (value != 0) {
+                mEnabled |= feature;
+            } else {
+                mEnabled &= ~feature;
+            }
+            return this;
+        }
+    }
+}
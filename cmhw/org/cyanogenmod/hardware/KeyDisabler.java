@@ -16,8 +16,7 @@
 
 package org.cyanogenmod.hardware;
 
-import java.io.File;
-import org.cyanogenmod.hardware.util.FileUtils;
+import java.util.concurrent.Future;
 
 /*
  * Disable capacitive keys
@@ -30,23 +29,25 @@ import org.cyanogenmod.hardware.util.FileUtils;
 
 public class KeyDisabler {
 
-
-    private static String KEYDISABLER_PATH = "/sys/class/sec/sec_touchkey/keypad_enable";
-
     public static boolean isSupported() {
-        File f = new File(KEYDISABLER_PATH);
-        return f.exists();
+        return SamsungHardware.getDefault().isKeyDisablerSupported();
     }
 
     public static boolean isActive() {
-        int i;
-        i = Integer.parseInt(FileUtils.readOneLine(KEYDISABLER_PATH));
-
-        return i > 0 ? false : true;
+        return SamsungHardware.getDefault().isKeyDisablerActive();
     }
 
     public static boolean setActive(boolean state) {
-        return FileUtils.writeLine(KEYDISABLER_PATH, String.valueOf(state ? 0 : 1));
+        return SamsungHardware.getDefault().setKeyDisablerActive(state);
+    }
+
+    public static Future<Boolean> isActiveAsync() {
+        return SamsungHardware.getDefault().isKeyDisablerActiveAsync();
+    }
+
+    /* Cancelled if a newer state replaced this one before it was written */
+    public static Future<Boolean> setActiveAsync(boolean state) {
+        return SamsungHardware.getDefault().setKeyDisablerActiveAsync(state);
     }
 
 }
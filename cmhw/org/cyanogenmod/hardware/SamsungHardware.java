@@ -0,0 +1,490 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware;
+
+import org.cyanogenmod.hardware.util.CoalescingIntWriter;
+import org.cyanogenmod.hardware.util.NodeExecutor;
+import org.cyanogenmod.hardware.util.NodeShadow;
+import org.cyanogenmod.hardware.util.SysfsNode;
+
+import android.os.Process;
+import android.os.SystemProperties;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Thread-safe facade over all cmhw features of Samsung devices.
+ *
+ * Every sysfs node has its own lock (the node itself), and checks followed by
+ * writes, such as dropping a write that would not change a node, happen under
+ * that lock. The touchscreen features share the TSP cmd/cmd_result pair and
+ * are serialized as a group by their command client. Callers working on
+ * different features never contend with each other.
+ *
+ * The *Async variants run the same operations on a small shared I/O pool and
+ * are safe to call from the UI thread. A write still waiting in the pool when
+ * a newer write for the same feature arrives is skipped, and its future is
+ * cancelled.
+ *
+ * When the device configures a {@link StatusPage}, the default instance in
+ * the system server publishes every state change made through it there, for
+ * other processes.
+ *
+ * On/off features are described by {@link FeatureDescriptor#TOGGLES} and all
+ * run through {@link ToggleFeature}.
+ *
+ * The static cmhw classes delegate to {@link #getDefault()}.
+ */
+public final class SamsungHardware {
+
+    private static final String VIBRATOR_LEVEL_PATH = "/sys/class/timed_output/vibrator/pwm_value";
+    private static final String VIBRATOR_ENABLE_PATH = "/sys/class/timed_output/vibrator/enable";
+    private static final String VIBRATOR_MAX_PATH = "/sys/class/timed_output/vibrator/pwm_max";
+    private static final String VIBRATOR_MIN_PATH = "/sys/class/timed_output/vibrator/pwm_min";
+    private static final String VIBRATOR_DEFAULT_PATH =
+            "/sys/class/timed_output/vibrator/pwm_default";
+    private static final String VIBRATOR_THRESHOLD_PATH =
+            "/sys/class/timed_output/vibrator/pwm_threshold";
+
+    private final SysfsNode mVibratorNode = new SysfsNode(VIBRATOR_LEVEL_PATH);
+    private final NodeShadow mVibratorShadow = new NodeShadow(mVibratorNode);
+    /* Slider drags set the intensity once per frame, the driver only needs the latest */
+    private final CoalescingIntWriter mVibratorWriter = new CoalescingIntWriter(mVibratorShadow,
+            SystemProperties.getInt("ro.cm.hardware.vibrator_interval", 50),
+            new CoalescingIntWriter.Listener() {
+                public void onWritten(int value) {
+                    publishVibratorIntensity(value);
+                }
+            });
+    private volatile VibratorRange mVibratorRange;
+    /* Runs the motor for the number of milliseconds written, 0 stops it */
+    private final SysfsNode mVibratorEnableNode = new SysfsNode(VIBRATOR_ENABLE_PATH);
+    /* Last intensity set through the public setters or a profile, -1 if none */
+    private volatile int mVibratorRequested = -1;
+
+    private final TspCommandClient mTsp = new TspCommandClient(
+            new TspCommandClient.StateListener() {
+                public void onStateChanged(String name) {
+                    for (ToggleFeature toggle : mToggles) {
+                        if (toggle != null) {
+                            toggle.onCommandStateChanged(name);
+                        }
+                    }
+                }
+            });
+
+    private final NodeExecutor mIo = new NodeExecutor(
+            SystemProperties.getInt("ro.cm.hardware.io_threads", 2), "SamsungHardware");
+
+    /* Indexed by the bit number of the feature, null for features that are not toggles */
+    private final ToggleFeature[] mToggles = new ToggleFeature[FeatureProbe.ALL_FEATURES.length];
+
+    /* FeatureProbe bits, -1 until probed */
+    private volatile int mFeatures = -1;
+
+    private volatile StatusPage mStatusPage;
+
+    SamsungHardware() {
+        ToggleFeature.Listener listener = new ToggleFeature.Listener() {
+            public void onStateChanged(int feature, boolean enabled) {
+                publishEnabled(feature, enabled);
+            }
+        };
+        for (FeatureDescriptor descriptor : FeatureDescriptor.TOGGLES) {
+            mToggles[Integer.numberOfTrailingZeros(descriptor.feature)] =
+                    new ToggleFeature(descriptor, mTsp, mIo, listener);
+        }
+    }
+
+    public static SamsungHardware getDefault() {
+        return Holder.INSTANCE;
+    }
+
+    private static class Holder {
+        static final SamsungHardware INSTANCE = new SamsungHardware();
+        static {
+            INSTANCE.startPublishing();
+        }
+    }
+
+    /* Features */
+
+    /**
+     * Whether a feature is supported, as a FeatureProbe bit. The device is
+     * probed once, on first use.
+     */
+    boolean isSupported(int feature) {
+        int features = mFeatures;
+        if (features == -1) {
+            synchronized (this) {
+                features = mFeatures;
+                if (features == -1) {
+                    features = FeatureProbe.probe(this);
+                    mFeatures = features;
+                }
+            }
+        }
+        return (features & feature) != 0;
+    }
+
+    /* Raw filesystem check behind isSupported(), run by FeatureProbe */
+    boolean probe(int feature) {
+        if (feature == FeatureProbe.VIBRATOR) {
+            return mVibratorNode.exists();
+        }
+        ToggleFeature toggle = getToggle(feature);
+        return toggle != null && toggle.probe();
+    }
+
+    /* The on/off feature for a FeatureProbe bit, or null */
+    ToggleFeature getToggle(int feature) {
+        return mToggles[Integer.numberOfTrailingZeros(feature)];
+    }
+
+    /* Status page */
+
+    /*
+     * The system server owns the hardware, so it is the one publishing. The
+     * probe and the initial reads touch sysfs, so they run on the I/O pool
+     * instead of in the first caller of getDefault().
+     */
+    private void startPublishing() {
+        final String path = StatusPage.DEFAULT_PATH;
+        if (path.isEmpty() || Process.myUid() != Process.SYSTEM_UID) {
+            return;
+        }
+        mIo.submit(path, new Callable<Boolean>() {
+            public Boolean call() {
+                return publishStatus(path);
+            }
+        });
+    }
+
+    /**
+     * Publish the state of every feature to the configured status page, and
+     * keep it up to date from now on. The default instance already does this
+     * in the system server; this is for other owners of the hardware.
+     *
+     * @return false if the device has no status page or it could not be
+     * created
+     */
+    public boolean publishStatus() {
+        return !StatusPage.DEFAULT_PATH.isEmpty() && publishStatus(StatusPage.DEFAULT_PATH);
+    }
+
+    public boolean publishStatus(String path) {
+        StatusPage page = StatusPage.create(path);
+        if (page == null) {
+            return false;
+        }
+        int supported = 0;
+        for (int feature : FeatureProbe.ALL_FEATURES) {
+            if (isSupported(feature)) {
+                supported |= feature;
+            }
+        }
+        page.setSupported(supported);
+        // Set before reading the initial state so no change made meanwhile is lost
+        mStatusPage = page;
+        for (ToggleFeature toggle : mToggles) {
+            if (toggle != null && (supported & toggle.getFeature()) != 0) {
+                page.setEnabled(toggle.getFeature(), toggle.isEnabled());
+            }
+        }
+        if ((supported & FeatureProbe.VIBRATOR) != 0) {
+            page.setVibratorIntensity(getVibratorCurIntensity());
+        }
+        return true;
+    }
+
+    private void publishEnabled(int feature, boolean enabled) {
+        StatusPage page = mStatusPage;
+        if (page != null) {
+            page.setEnabled(feature, enabled);
+        }
+    }
+
+    private void publishVibratorIntensity(int intensity) {
+        StatusPage page = mStatusPage;
+        if (page != null) {
+            page.setVibratorIntensity(intensity);
+        }
+    }
+
+    /* Adaptive backlight */
+
+    public boolean isAdaptiveBacklightSupported() {
+        return isSupported(FeatureProbe.ADAPTIVE_BACKLIGHT);
+    }
+
+    public boolean isAdaptiveBacklightEnabled() {
+        return getToggle(FeatureProbe.ADAPTIVE_BACKLIGHT).isEnabled();
+    }
+
+    public boolean setAdaptiveBacklightEnabled(boolean status) {
+        return getToggle(FeatureProbe.ADAPTIVE_BACKLIGHT).setEnabled(status);
+    }
+
+    public Future<Boolean> isAdaptiveBacklightEnabledAsync() {
+        return getToggle(FeatureProbe.ADAPTIVE_BACKLIGHT).isEnabledAsync();
+    }
+
+    public Future<Boolean> setAdaptiveBacklightEnabledAsync(boolean status) {
+        return getToggle(FeatureProbe.ADAPTIVE_BACKLIGHT).setEnabledAsync(status);
+    }
+
+    /* Key disabler */
+
+    public boolean isKeyDisablerSupported() {
+        return isSupported(FeatureProbe.KEY_DISABLER);
+    }
+
+    public boolean isKeyDisablerActive() {
+        return getToggle(FeatureProbe.KEY_DISABLER).isEnabled();
+    }
+
+    public boolean setKeyDisablerActive(boolean state) {
+        return getToggle(FeatureProbe.KEY_DISABLER).setEnabled(state);
+    }
+
+    public Future<Boolean> isKeyDisablerActiveAsync() {
+        return getToggle(FeatureProbe.KEY_DISABLER).isEnabledAsync();
+    }
+
+    public Future<Boolean> setKeyDisablerActiveAsync(boolean state) {
+        return getToggle(FeatureProbe.KEY_DISABLER).setEnabledAsync(state);
+    }
+
+    /* High touch sensitivity */
+
+    public boolean isHighTouchSensitivitySupported() {
+        return isSupported(FeatureProbe.HIGH_TOUCH_SENSITIVITY);
+    }
+
+    public boolean isHighTouchSensitivityEnabled() {
+        return getToggle(FeatureProbe.HIGH_TOUCH_SENSITIVITY).isEnabled();
+    }
+
+    public Future<Boolean> isHighTouchSensitivityEnabledAsync() {
+        // Only the first call reads cmd_result, later ones hit the cached state
+        return getToggle(FeatureProbe.HIGH_TOUCH_SENSITIVITY).isEnabledAsync();
+    }
+
+    public boolean setHighTouchSensitivityEnabled(boolean status) {
+        return getToggle(FeatureProbe.HIGH_TOUCH_SENSITIVITY).setEnabled(status);
+    }
+
+    public Future<Boolean> setHighTouchSensitivityEnabledAsync(boolean status) {
+        return getToggle(FeatureProbe.HIGH_TOUCH_SENSITIVITY).setEnabledAsync(status);
+    }
+
+    /* Touchscreen hovering */
+
+    public boolean isTouchscreenHoveringSupported() {
+        return isSupported(FeatureProbe.TOUCHSCREEN_HOVERING);
+    }
+
+    public boolean isTouchscreenHoveringEnabled() {
+        return getToggle(FeatureProbe.TOUCHSCREEN_HOVERING).isEnabled();
+    }
+
+    public Future<Boolean> isTouchscreenHoveringEnabledAsync() {
+        return getToggle(FeatureProbe.TOUCHSCREEN_HOVERING).isEnabledAsync();
+    }
+
+    public boolean setTouchscreenHoveringEnabled(boolean status) {
+        return getToggle(FeatureProbe.TOUCHSCREEN_HOVERING).setEnabled(status);
+    }
+
+    public Future<Boolean> setTouchscreenHoveringEnabledAsync(boolean status) {
+        return getToggle(FeatureProbe.TOUCHSCREEN_HOVERING).setEnabledAsync(status);
+    }
+
+    /* Vibrator */
+
+    public boolean isVibratorSupported() {
+        return isSupported(FeatureProbe.VIBRATOR);
+    }
+
+    public int getVibratorMaxIntensity() {
+        return getVibratorRange().max;
+    }
+
+    public int getVibratorMinIntensity() {
+        return getVibratorRange().min;
+    }
+
+    public int getVibratorWarningThreshold() {
+        return getVibratorRange().threshold;
+    }
+
+    public int getVibratorDefaultIntensity() {
+        return getVibratorRange().defaultValue;
+    }
+
+    public int getVibratorCurIntensity() {
+        return mVibratorWriter.getPending(mVibratorShadow.readInt(0));
+    }
+
+    /**
+     * Set the vibrator intensity without waiting for the write, which is
+     * coalesced with the following ones. The status page is updated once the
+     * value is written.
+     */
+    public boolean setVibratorIntensity(int intensity) {
+        if (!isVibratorSupported()) {
+            return false;
+        }
+        mVibratorRequested = intensity;
+        mVibratorWriter.post(intensity);
+        return true;
+    }
+
+    /**
+     * Load the vibrator intensity range off the calling thread. The values are
+     * read once and kept, so later calls complete without I/O.
+     *
+     * @return Future completing with {max, min, warning threshold, default}
+     */
+    public Future<int[]> getVibratorRangeAsync() {
+        return mIo.submit(mVibratorNode, new Callable<int[]>() {
+            public int[] call() {
+                VibratorRange range = getVibratorRange();
+                return new int[] { range.max, range.min, range.threshold, range.defaultValue };
+            }
+        });
+    }
+
+    public Future<Integer> getVibratorCurIntensityAsync() {
+        return mIo.submit(mVibratorNode, new Callable<Integer>() {
+            public Integer call() {
+                return getVibratorCurIntensity();
+            }
+        });
+    }
+
+    /**
+     * Write the vibrator intensity off the calling thread.
+     *
+     * @return Future completing with the result of the write, or cancelled if
+     * a newer intensity replaced it before it was written
+     */
+    public Future<Boolean> setVibratorIntensityAsync(final int intensity) {
+        return mIo.submitWrite(mVibratorNode, new Callable<Boolean>() {
+            public Boolean call() {
+                return isVibratorSupported() && applyVibratorIntensity(intensity);
+            }
+        });
+    }
+
+    /*
+     * Write the intensity right away, replacing any value still waiting in the
+     * coalescing writer. Used when the caller needs to know the outcome, like
+     * a profile restore.
+     */
+    boolean applyVibratorIntensity(int intensity) {
+        mVibratorRequested = intensity;
+        if (!mVibratorWriter.writeNow(intensity)) {
+            return false;
+        }
+        publishVibratorIntensity(intensity);
+        return true;
+    }
+
+    /*
+     * Write one waveform sample. Unlike applyVibratorIntensity(), this leaves
+     * the requested intensity, any value waiting in the coalescing writer and
+     * the status page alone.
+     */
+    boolean writeVibratorSample(int intensity) {
+        synchronized (mVibratorNode) {
+            return mVibratorShadow.writeInt(intensity);
+        }
+    }
+
+    /*
+     * Put the intensity back after a waveform: the newest value set while it
+     * played, else the last one set before, else fallback. A value still
+     * waiting in the coalescing writer stays queued and is written again by it.
+     */
+    boolean restoreVibratorIntensity(int fallback) {
+        synchronized (mVibratorNode) {
+            int requested = mVibratorRequested;
+            return mVibratorShadow.writeInt(
+                    mVibratorWriter.getPending(requested != -1 ? requested : fallback));
+        }
+    }
+
+    /*
+     * Run the motor for the given time at the current intensity, or stop it
+     * with 0. Writing only the intensity does not start the motor.
+     */
+    boolean runVibratorMotor(int durationMs) {
+        return mVibratorEnableNode.writeInt(durationMs);
+    }
+
+    private VibratorRange getVibratorRange() {
+        VibratorRange range = mVibratorRange;
+        if (range == null) {
+            synchronized (this) {
+                range = mVibratorRange;
+                if (range == null) {
+                    range = VibratorRange.load();
+                    mVibratorRange = range;
+                }
+            }
+        }
+        return range;
+    }
+
+    /**
+     * Intensity range of the vibrator. The driver never changes it at runtime,
+     * so it is loaded in one pass on first use and kept for the life of the
+     * instance.
+     */
+    private static final class VibratorRange {
+        final int max;
+        final int min;
+        final int threshold;
+        final int defaultValue;
+
+        private VibratorRange(int max, int min, int threshold, int defaultValue) {
+            this.max = max;
+            this.min = min;
+            this.threshold = threshold;
+            this.defaultValue = defaultValue;
+        }
+
+        static VibratorRange load() {
+            return new VibratorRange(
+                    readOnce(VIBRATOR_MAX_PATH, 100),
+                    readOnce(VIBRATOR_MIN_PATH, 0),
+                    readOnce(VIBRATOR_THRESHOLD_PATH, 75),
+                    readOnce(VIBRATOR_DEFAULT_PATH, 50));
+        }
+
+        private static int readOnce(String path, int defaultValue) {
+            SysfsNode node = new SysfsNode(path);
+            try {
+                return node.readInt(defaultValue);
+            } finally {
+                node.close();
+            }
+        }
+    }
+}
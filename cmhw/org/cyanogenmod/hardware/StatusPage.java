@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware;
+
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memory-mapped page holding the state of every cmhw feature.
+ *
+ * The page only exists when the device sets ro.cm.hardware.status_page. The
+ * system server, which owns cmhw, then publishes into it as soon as it first
+ * uses the hardware; any other process can map it with {@link #open} and
+ * read the state without touching sysfs. Readers need SELinux access to the
+ * file, so the device must put it where its sepolicy gives them read access
+ * (not under /data/system, which is system_data_file). The page is
+ * guarded by a sequence counter: the writer makes it odd while it updates
+ * the page and even again when done, and readers retry until they see the
+ * same even value before and after copying the fields.
+ *
+ * Layout, in native byte order:
+ * <pre>
+ *  0  int   magic
+ *  4  int   layout version
+ *  8  int   sequence, odd while being written
+ * 12  int   supported features
+ * 16  int   enabled features
+ * 20  int   vibrator intensity
+ * 24  long  uptime of the last update, in milliseconds
+ * </pre>
+ */
+public final class StatusPage {
+
+    private static final String TAG = "StatusPage";
+
+    /* Empty when the device publishes no status page */
+    static final String DEFAULT_PATH =
+            SystemProperties.get("ro.cm.hardware.status_page", "");
+
+    private static final int MAGIC = 0x434d4857; /* "CMHW" */
+    private static final int LAYOUT_VERSION = 1;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_LAYOUT = 4;
+    private static final int OFFSET_SEQUENCE = 8;
+    private static final int OFFSET_SUPPORTED = 12;
+    private static final int OFFSET_ENABLED = 16;
+    private static final int OFFSET_VIBRATOR = 20;
+    private static final int OFFSET_UPDATED = 24;
+    private static final int SIZE = 32;
+
+    /* Attempts at a consistent copy before giving up on a stuck writer */
+    private static final int MAX_READ_ATTEMPTS = 1000;
+
+    /* Only used by fence(), its value means nothing */
+    private static final AtomicInteger sFence = new AtomicInteger();
+
+    private final MappedByteBuffer mBuffer;
+
+    /* Writer side only, guarded by this */
+    private int mSequence;
+    private int mSupported;
+    private int mEnabled;
+    private int mVibratorIntensity;
+
+    private StatusPage(MappedByteBuffer buffer) {
+        mBuffer = buffer;
+        mBuffer.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Map the page published at the configured location for reading.
+     *
+     * @return the page, or null if the device has none or nothing was
+     * published there
+     */
+    public static StatusPage open() {
+        return DEFAULT_PATH.isEmpty() ? null : open(DEFAULT_PATH);
+    }
+
+    public static StatusPage open(String path) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(path, "r");
+            if (file.length() < SIZE) {
+                return null;
+            }
+            StatusPage page = new StatusPage(
+                    file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, SIZE));
+            if (page.mBuffer.getInt(OFFSET_MAGIC) != MAGIC
+                    || page.mBuffer.getInt(OFFSET_LAYOUT) != LAYOUT_VERSION) {
+                Log.w(TAG, "Unknown status page layout in " + path);
+                return null;
+            }
+            return page;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(file);
+        }
+    }
+
+    /* Create or take over the page at path; the caller becomes its only writer */
+    static StatusPage create(String path) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(path, "rw");
+            file.setLength(SIZE);
+            StatusPage page = new StatusPage(
+                    file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE));
+            page.init();
+            // Readers live in other processes, under other uids
+            if (!new File(path).setReadable(true, false)) {
+                Log.w(TAG, "Could not make status page " + path + " readable");
+            }
+            return page;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not create status page " + path, e);
+            return null;
+        } finally {
+            // The mapping stays valid after the file is closed
+            closeQuietly(file);
+        }
+    }
+
+    private synchronized void init() {
+        // Continue the sequence of a previous owner so readers see a change
+        mSequence = mBuffer.getInt(OFFSET_SEQUENCE) & ~1;
+        mBuffer.putInt(OFFSET_MAGIC, MAGIC);
+        mBuffer.putInt(OFFSET_LAYOUT, LAYOUT_VERSION);
+        commit();
+    }
+
+    synchronized void setSupported(int features) {
+        mSupported = features;
+        commit();
+    }
+
+    synchronized void setEnabled(int feature, boolean enabled) {
+        if (enabled) {
+            mEnabled |= feature;
+        } else {
+            mEnabled &= ~feature;
+        }
+        commit();
+    }
+
+    synchronized void setVibratorIntensity(int intensity) {
+        mVibratorIntensity = intensity;
+        commit();
+    }
+
+    /* Caller holds this */
+    private void commit() {
+        mBuffer.putInt(OFFSET_SEQUENCE, ++mSequence);
+        fence();
+        mBuffer.putInt(OFFSET_SUPPORTED, mSupported);
+        mBuffer.putInt(OFFSET_ENABLED, mEnabled);
+        mBuffer.putInt(OFFSET_VIBRATOR, mVibratorIntensity);
+        mBuffer.putLong(OFFSET_UPDATED, SystemClock.uptimeMillis());
+        fence();
+        mBuffer.putInt(OFFSET_SEQUENCE, ++mSequence);
+    }
+
+    /**
+     * Take a consistent copy of the page. Never blocks on the writer.
+     *
+     * @return the current state, or null if the writer stayed in the middle
+     * of an update for too long
+     */
+    public Snapshot read() {
+        for (int i = 0; i < MAX_READ_ATTEMPTS; i++) {
+            int before = mBuffer.getInt(OFFSET_SEQUENCE);
+            if ((before & 1) != 0) {
+                continue;
+            }
+            fence();
+            int supported = mBuffer.getInt(OFFSET_SUPPORTED);
+            int enabled = mBuffer.getInt(OFFSET_ENABLED);
+            int vibrator = mBuffer.getInt(OFFSET_VIBRATOR);
+            long updated = mBuffer.getLong(OFFSET_UPDATED);
+            fence();
+            if (mBuffer.getInt(OFFSET_SEQUENCE) == before) {
+                return new Snapshot(before >>> 1, supported, enabled, vibrator, updated);
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Java 7 has no explicit fences. A volatile read-modify-write is both an
+     * acquire and a release, so no plain access to the mapping moves across
+     * it in either direction: the writer's data stores stay between its two
+     * sequence stores, and the reader's data loads stay between its two
+     * sequence loads.
+     */
+    private static void fence() {
+        sFence.getAndIncrement();
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Ignore exception, no recovery possible
+            }
+        }
+    }
+
+    /**
+     * State of all features at one point in time.
+     */
+    public static final class Snapshot {
+        private final int mVersion;
+        private final int mSupported;
+        private final int mEnabled;
+        private final int mVibratorIntensity;
+        private final long mUpdateTime;
+
+        private Snapshot(int version, int supported, int enabled, int vibratorIntensity,
+                long updateTime) {
+            mVersion = version;
+            mSupported = supported;
+            mEnabled = enabled;
+            mVibratorIntensity = vibratorIntensity;
+            mUpdateTime = updateTime;
+        }
+
+        /**
+         * Number of updates published so far. Two snapshots with the same
+         * version hold the same state.
+         */
+        public int getVersion() {
+            return mVersion;
+        }
+
+        /**
+         * Uptime in milliseconds of the update this snapshot reflects.
+         */
+        public long getUpdateTime() {
+            return mUpdateTime;
+        }
+
+        /**
+         * @param feature FeatureProbe bit
+         */
+        boolean isSupported(int feature) {
+            return (mSupported & feature) != 0;
+        }
+
+        /**
+         * @param feature FeatureProbe bit of an on/off feature
+         */
+        boolean isEnabled(int feature) {
+            return (mEnabled & feature) != 0;
+        }
+
+        public boolean isAdaptiveBacklightSupported() {
+            return isSupported(FeatureProbe.ADAPTIVE_BACKLIGHT);
+        }
+
+        public boolean isAdaptiveBacklightEnabled() {
+            return isEnabled(FeatureProbe.ADAPTIVE_BACKLIGHT);
+        }
+
+        public boolean isKeyDisablerSupported() {
+            return isSupported(FeatureProbe.KEY_DISABLER);
+        }
+
+        public boolean isKeyDisablerActive() {
+            return isEnabled(FeatureProbe.KEY_DISABLER);
+        }
+
+        public boolean isHighTouchSensitivitySupported() {
+            return isSupported(FeatureProbe.HIGH_TOUCH_SENSITIVITY);
+        }
+
+        public boolean isHighTouchSensitivityEnabled() {
+            return isEnabled(FeatureProbe.HIGH_TOUCH_SENSITIVITY);
+        }
+
+        public boolean isTouchscreenHoveringSupported() {
+            return isSupported(FeatureProbe.TOUCHSCREEN_HOVERING);
+        }
+
+        public boolean isTouchscreenHoveringEnabled() {
+            return isEnabled(FeatureProbe.TOUCHSCREEN_HOVERING);
+        }
+
+        public boolean isVibratorSupported() {
+            return isSupported(FeatureProbe.VIBRATOR);
+        }
+
+        public int getVibratorIntensity() {
+            return mVibratorIntensity;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware;
+
+import org.cyanogenmod.hardware.util.NodeExecutor;
+import org.cyanogenmod.hardware.util.NodeShadow;
+import org.cyanogenmod.hardware.util.SysfsNode;
+
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Runtime side of a {@link FeatureDescriptor}.
+ *
+ * Sysfs features go through a persistent node and its shadow, touchscreen
+ * features through the shared TSP command client; both get the same
+ * blocking and asynchronous accessors.
+ */
+final class ToggleFeature {
+
+    private static final String TAG = "ToggleFeature";
+
+    /**
+     * Told about every state change, once it is known to have happened or,
+     * for TSP commands, as soon as it is requested.
+     */
+    interface Listener {
+        void onStateChanged(int feature, boolean enabled);
+    }
+
+    private final FeatureDescriptor mDescriptor;
+    private final TspCommandClient mTsp;
+    private final NodeExecutor mIo;
+    private final Listener mListener;
+
+    /* Both null for TSP commands */
+    private final SysfsNode mNode;
+    private final NodeShadow mShadow;
+
+    ToggleFeature(FeatureDescriptor descriptor, TspCommandClient tsp, NodeExecutor io,
+            Listener listener) {
+        mDescriptor = descriptor;
+        mTsp = tsp;
+        mIo = io;
+        mListener = listener;
+        if (descriptor.kind == FeatureDescriptor.KIND_SYSFS) {
+            mNode = new SysfsNode(descriptor.target);
+            mShadow = new NodeShadow(mNode);
+        } else {
+            mNode = null;
+            mShadow = null;
+        }
+    }
+
+    int getFeature() {
+        return mDescriptor.feature;
+    }
+
+    boolean probe() {
+        return mNode != null ? mNode.exists() : mTsp.hasCommand(mDescriptor.target);
+    }
+
+    boolean isEnabled() {
+        int value = mShadow != null
+                ? mShadow.readInt(mDescriptor.offValue)
+                : mTsp.getState(mDescriptor.target, mDescriptor.offValue);
+        return value == mDescriptor.onValue;
+    }
+
+    Future<Boolean> isEnabledAsync() {
+        return mIo.submit(mNode != null ? mNode : mTsp, new Callable<Boolean>() {
+            public Boolean call() {
+                return isEnabled();
+            }
+        });
+    }
+
+    /**
+     * Switch the feature and wait until the hardware took the new state.
+     */
+    boolean setEnabled(boolean enabled) {
+        if (mShadow == null) {
+            return waitFor(setEnabledAsync(enabled));
+        }
+        if (!mShadow.writeInt(enabled ? mDescriptor.onValue : mDescriptor.offValue)) {
+            return false;
+        }
+        mListener.onStateChanged(mDescriptor.feature, enabled);
+        return true;
+    }
+
+    /**
+     * Switch the feature without waiting. For sysfs features the returned
+     * future is cancelled if a newer state replaced this one before it was
+     * written.
+     */
+    Future<Boolean> setEnabledAsync(final boolean enabled) {
+        if (mShadow == null) {
+            // The command client reports the change through onCommandStateChanged()
+            return mTsp.submit(mDescriptor.target,
+                    enabled ? mDescriptor.onValue : mDescriptor.offValue);
+        }
+        return mIo.submitWrite(mNode, new Callable<Boolean>() {
+            public Boolean call() {
+                return setEnabled(enabled);
+            }
+        });
+    }
+
+    /* Called for every state change seen by the TSP command client */
+    void onCommandStateChanged(String command) {
+        if (mShadow == null && mDescriptor.target.equals(command)) {
+            mListener.onStateChanged(mDescriptor.feature,
+                    mTsp.getCachedState(command, mDescriptor.offValue) == mDescriptor.onValue);
+        }
+    }
+
+    private static boolean waitFor(Future<Boolean> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Feature write failed", e.getCause());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware;
+
+import org.cyanogenmod.hardware.util.SysfsNode;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Client for the Samsung touchscreen (TSP) command interface.
+ *
+ * Commands are written to cmd as "name,param" and the firmware answers in
+ * cmd_result with "name,param:OK" (or ":FAIL") once it is done. This class
+ * owns that pair: commands run one at a time on a dedicated thread, in the
+ * order they were submitted, and each one completes only when cmd_result
+ * echoes it back. Callers get a Future and are never blocked by the
+ * touchscreen controller.
+ */
+final class TspCommandClient {
+
+    private static final String TAG = "TspCommandClient";
+
+    private static final String COMMAND_PATH = "/sys/class/sec/tsp/cmd";
+    private static final String COMMAND_LIST_PATH = "/sys/class/sec/tsp/cmd_list";
+    private static final String COMMAND_RESULT_PATH = "/sys/class/sec/tsp/cmd_result";
+    private static final String STATUS_OK = ":OK";
+    private static final String STATUS_FAIL = ":FAIL";
+
+    /* cmd_result polling: first retry after 1ms, doubling up to 32ms, 500ms overall */
+    private static final long POLL_INITIAL_DELAY_MS = 1;
+    private static final long POLL_MAX_DELAY_MS = 32;
+    private static final long COMMAND_TIMEOUT_MS = 500;
+
+    private final SysfsNode mCommandNode = new SysfsNode(COMMAND_PATH);
+    private final SysfsNode mResultNode = new SysfsNode(COMMAND_RESULT_PATH);
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, TAG);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /* Guarded by itself */
+    private final HashMap<String, CommandState> mStates = new HashMap<String, CommandState>();
+
+    /*
+     * What is known about one command: the parameter last requested, which
+     * is the one reported while commands are in flight, and the one last
+     * acknowledged by the firmware, which a failed command reverts to.
+     */
+    private static final class CommandState {
+        int requested;
+        int acknowledged;
+        boolean isAcknowledged;
+        /* Incremented by every submit, tells whether a newer command was queued */
+        int sequence;
+    }
+
+    private volatile Set<String> mCommands;
+
+    private final StateListener mListener;
+
+    /**
+     * Told about every change of a command state, including the rollback of
+     * a failed command. Called on the submitting thread or the command
+     * thread, and must not block.
+     */
+    interface StateListener {
+        void onStateChanged(String name);
+    }
+
+    TspCommandClient(StateListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Whether the touchscreen firmware advertises the given command.
+     */
+    boolean hasCommand(String name) {
+        return mCommandNode.exists() && getCommands().contains(name);
+    }
+
+    /**
+     * Queue a command. The returned future completes with true once the
+     * firmware reports it as OK, or with false if it failed or timed out; in
+     * that case, unless a newer command was queued meanwhile, the state of
+     * the command goes back to the last acknowledged one.
+     */
+    Future<Boolean> submit(final String name, final int param) {
+        final int sequence;
+        synchronized (mStates) {
+            CommandState state = mStates.get(name);
+            if (state == null) {
+                state = new CommandState();
+                mStates.put(name, state);
+            }
+            state.requested = param;
+            sequence = ++state.sequence;
+        }
+        notifyStateChanged(name);
+        return mExecutor.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                boolean success = run(name + "," + param);
+                if (complete(name, param, sequence, success)) {
+                    notifyStateChanged(name);
+                }
+                return success;
+            }
+        });
+    }
+
+    /* Returns true if the reported state of the command changed */
+    private boolean complete(String name, int param, int sequence, boolean success) {
+        synchronized (mStates) {
+            CommandState state = mStates.get(name);
+            if (success) {
+                state.acknowledged = param;
+                state.isAcknowledged = true;
+                return false;
+            }
+            if (state.sequence != sequence) {
+                // A newer command owns the reported state
+                return false;
+            }
+            if (state.isAcknowledged) {
+                state.requested = state.acknowledged;
+            } else {
+                mStates.remove(name);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Parameter of a command as last requested from this process. When the
+     * command was never issued, the current cmd_result is read once, as long
+     * as it belongs to that command; the read does not wait for queued
+     * commands.
+     */
+    int getState(String name, int defaultState) {
+        synchronized (mStates) {
+            CommandState state = mStates.get(name);
+            if (state != null) {
+                return state.requested;
+            }
+        }
+        Integer result = parseResult(name, mResultNode.readLine());
+        if (result == null) {
+            return defaultState;
+        }
+        synchronized (mStates) {
+            CommandState state = mStates.get(name);
+            if (state == null) {
+                state = new CommandState();
+                state.requested = result;
+                state.acknowledged = result;
+                state.isAcknowledged = true;
+                mStates.put(name, state);
+            }
+            return state.requested;
+        }
+    }
+
+    /**
+     * Parameter of a command as last requested from this process, without
+     * consulting the firmware.
+     */
+    int getCachedState(String name, int defaultState) {
+        synchronized (mStates) {
+            CommandState state = mStates.get(name);
+            return state != null ? state.requested : defaultState;
+        }
+    }
+
+    private void notifyStateChanged(String name) {
+        if (mListener != null) {
+            mListener.onStateChanged(name);
+        }
+    }
+
+    /* Runs on the command thread */
+    private boolean run(String command) {
+        if (!mCommandNode.writeLine(command)) {
+            return false;
+        }
+        String expected = command + ":";
+        long deadline = SystemClock.uptimeMillis() + COMMAND_TIMEOUT_MS;
+        long delay = POLL_INITIAL_DELAY_MS;
+        while (true) {
+            String result = mResultNode.readLine();
+            if (result != null && result.startsWith(expected)) {
+                if (result.endsWith(STATUS_OK)) {
+                    return true;
+                }
+                if (result.endsWith(STATUS_FAIL)) {
+                    Log.w(TAG, "Command " + command + " failed");
+                    return false;
+                }
+            }
+            long remaining = deadline - SystemClock.uptimeMillis();
+            if (remaining <= 0) {
+                Log.w(TAG, "Timed out waiting for " + command + ", last result " + result);
+                return false;
+            }
+            try {
+                Thread.sleep(Math.min(delay, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            delay = Math.min(delay * 2, POLL_MAX_DELAY_MS);
+        }
+    }
+
+    private static Integer parseResult(String name, String result) {
+        String prefix = name + ",";
+        if (result == null || !result.startsWith(prefix) || !result.endsWith(STATUS_OK)) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(result.substring(prefix.length(),
+                    result.length() - STATUS_OK.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Set<String> getCommands() {
+        Set<String> commands = mCommands;
+        if (commands == null) {
+            synchronized (this) {
+                commands = mCommands;
+                if (commands == null) {
+                    commands = readCommands();
+                    mCommands = commands;
+                }
+            }
+        }
+        return commands;
+    }
+
+    private static Set<String> readCommands() {
+        Set<String> commands = new HashSet<String>();
+        BufferedReader reader = null;
+        try {
+            String currentLine;
+            reader = new BufferedReader(new FileReader(COMMAND_LIST_PATH));
+            while ((currentLine = reader.readLine()) != null) {
+                commands.add(currentLine);
+            }
+        } catch (IOException e) {
+            // Ignore exception, no command is supported then
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Ignore exception, no recovery possible
+                }
+            }
+        }
+        return Collections.unmodifiableSet(commands);
+    }
+}
@@ -16,80 +16,53 @@
 
 package org.cyanogenmod.hardware;
 
-import org.cyanogenmod.hardware.util.FileUtils;
-
-import java.io.File;
+import java.util.concurrent.Future;
 
 public class VibratorHW {
 
-    private static String LEVEL_PATH = "/sys/class/timed_output/vibrator/pwm_value";
-    private static String LEVEL_MAX_PATH = "/sys/class/timed_output/vibrator/pwm_max";
-    private static String LEVEL_MIN_PATH = "/sys/class/timed_output/vibrator/pwm_min";
-    private static String LEVEL_DEFAULT_PATH = "/sys/class/timed_output/vibrator/pwm_default";
-    private static String LEVEL_THRESHOLD_PATH = "/sys/class/timed_output/vibrator/pwm_threshold";
-
     public static boolean isSupported() {
-        File f = new File(LEVEL_PATH);
-        return f.exists();
+        return SamsungHardware.getDefault().isVibratorSupported();
     }
 
     public static int getMaxIntensity()  {
-        File f = new File(LEVEL_MAX_PATH);
-
-        if(f.exists()) {
-            return Integer.parseInt(FileUtils.readOneLine(LEVEL_MAX_PATH));
-        } else {
-            return 100;
-        }
+        return SamsungHardware.getDefault().getVibratorMaxIntensity();
     }
 
     public static int getMinIntensity()  {
-        File f = new File(LEVEL_MIN_PATH);
-
-        if(f.exists()) {
-            return Integer.parseInt(FileUtils.readOneLine(LEVEL_MIN_PATH));
-        } else {
-            return 0;
-        }
+        return SamsungHardware.getDefault().getVibratorMinIntensity();
     }
 
     public static int getWarningThreshold()  {
-        File f = new File(LEVEL_THRESHOLD_PATH);
-
-        if(f.exists()) {
-            return Integer.parseInt(FileUtils.readOneLine(LEVEL_THRESHOLD_PATH));
-        } else {
-            return 75;
-        }
+        return SamsungHardware.getDefault().getVibratorWarningThreshold();
     }
 
     public static int getCurIntensity()  {
-        File f = new File(LEVEL_PATH);
-
-        if(f.exists()) {
-            return Integer.parseInt(FileUtils.readOneLine(LEVEL_PATH));
-        } else {
-            return 0;
-        }
+        return SamsungHardware.getDefault().getVibratorCurIntensity();
     }
 
     public static int getDefaultIntensity()  {
-        File f = new File(LEVEL_DEFAULT_PATH);
-
-        if(f.exists()) {
-            return Integer.parseInt(FileUtils.readOneLine(LEVEL_DEFAULT_PATH));
-        } else {
-            return 50;
-        }
+        return SamsungHardware.getDefault().getVibratorDefaultIntensity();
     }
 
     public static boolean setIntensity(int intensity)  {
-        File f = new File(LEVEL_PATH);
+        return SamsungHardware.getDefault().setVibratorIntensity(intensity);
+    }
+
+    /* {max, min, warning threshold, default} */
+    public static Future<int[]> getRangeAsync()  {
+        return SamsungHardware.getDefault().getVibratorRangeAsync();
+    }
+
+    public static Future<Integer> getCurIntensityAsync()  {
+        return SamsungHardware.getDefault().getVibratorCurIntensityAsync();
+    }
+
+    /* Cancelled if a newer intensity replaced this one before it was written */
+    public static Future<Boolean> setIntensityAsync(int intensity)  {
+        return SamsungHardware.getDefault().setVibratorIntensityAsync(intensity);
+    }
 
-        if(f.exists()) {
-            return FileUtils.writeLine(LEVEL_PATH, String.valueOf(intensity));
-        } else {
-            return false;
-        }
+    static boolean applyIntensity(int intensity) {
+        return SamsungHardware.getDefault().applyVibratorIntensity(intensity);
     }
 }
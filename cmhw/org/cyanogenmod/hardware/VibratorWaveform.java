@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware;
+
+/**
+ * Precomputed vibrator intensity envelope: a series of PWM values played at
+ * a fixed sample period. Samples are clamped to the intensity range of the
+ * vibrator when the waveform is built, so playback is a plain array walk.
+ */
+public final class VibratorWaveform {
+
+    private final int[] mSamples;
+    private final long mPeriodNanos;
+
+    private VibratorWaveform(int[] samples, long periodMs) {
+        if (periodMs <= 0) {
+            throw new IllegalArgumentException("Sample period must be positive");
+        }
+        int min = VibratorHW.getMinIntensity();
+        int max = VibratorHW.getMaxIntensity();
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = Math.max(min, Math.min(max, samples[i]));
+        }
+        mSamples = samples;
+        mPeriodNanos = periodMs * 1000000L;
+    }
+
+    /**
+     * Waveform from arbitrary samples. The array is copied.
+     */
+    public static VibratorWaveform fromSamples(int[] samples, long periodMs) {
+        return new VibratorWaveform(samples.clone(), periodMs);
+    }
+
+    /**
+     * Linear ramp between two intensities.
+     */
+    public static VibratorWaveform ramp(int from, int to, long durationMs, long periodMs) {
+        int count = sampleCount(durationMs, periodMs);
+        int[] samples = new int[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = count == 1 ? to : from + (int) ((long) (to - from) * i / (count - 1));
+        }
+        return new VibratorWaveform(samples, periodMs);
+    }
+
+    /**
+     * Fade from an intensity down to the minimum intensity.
+     */
+    public static VibratorWaveform fade(int from, long durationMs, long periodMs) {
+        return ramp(from, VibratorHW.getMinIntensity(), durationMs, periodMs);
+    }
+
+    /**
+     * Square pulse train alternating between a high and a low intensity.
+     */
+    public static VibratorWaveform pulse(int high, int low, long onMs, long offMs, int pulses,
+            long periodMs) {
+        int on = sampleCount(onMs, periodMs);
+        int off = sampleCount(offMs, periodMs);
+        int[] samples = new int[(on + off) * pulses];
+        int n = 0;
+        for (int p = 0; p < pulses; p++) {
+            for (int i = 0; i < on; i++) {
+                samples[n++] = high;
+            }
+            for (int i = 0; i < off; i++) {
+                samples[n++] = low;
+            }
+        }
+        return new VibratorWaveform(samples, periodMs);
+    }
+
+    public int getSampleCount() {
+        return mSamples.length;
+    }
+
+    public long getPeriodNanos() {
+        return mPeriodNanos;
+    }
+
+    int getSample(int index) {
+        return mSamples[index];
+    }
+
+    private static int sampleCount(long durationMs, long periodMs) {
+        if (periodMs <= 0) {
+            throw new IllegalArgumentException("Sample period must be positive");
+        }
+        return (int) Math.max(1, durationMs / periodMs);
+    }
+}
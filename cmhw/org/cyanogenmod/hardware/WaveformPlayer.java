@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays {@link VibratorWaveform}s on the vibrator intensity node.
+ *
+ * Playback runs on one dedicated high priority thread. Each sample is written
+ * at its deadline; a sample that could only be written more than one period
+ * late is dropped instead of delaying the rest of the waveform. Nothing is
+ * allocated while a waveform plays. The motor is run for the length of the
+ * waveform and stopped when it ends or is stopped. Afterwards the intensity
+ * goes back to the latest one set through VibratorHW, including a change
+ * made while the waveform played.
+ */
+public final class WaveformPlayer {
+
+    private static final String TAG = "WaveformPlayer";
+
+    private final Object mLock = new Object();
+    private volatile VibratorWaveform mWaveform;
+
+    /* Timing statistics, guarded by mLock */
+    private long mPlayed;
+    private long mDropped;
+    private long mJitterTotalNanos;
+    private long mJitterMaxNanos;
+
+    private WaveformPlayer() {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                loop();
+            }
+        }, TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static WaveformPlayer getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static class Holder {
+        static final WaveformPlayer INSTANCE = new WaveformPlayer();
+    }
+
+    /**
+     * Start playing a waveform, replacing the one currently playing.
+     */
+    public void play(VibratorWaveform waveform) {
+        synchronized (mLock) {
+            mWaveform = waveform;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Stop the current waveform, if any.
+     */
+    public void stop() {
+        mWaveform = null;
+    }
+
+    public boolean isPlaying() {
+        return mWaveform != null;
+    }
+
+    /** Samples written since the last reset. */
+    public long getPlayedSamples() {
+        synchronized (mLock) {
+            return mPlayed;
+        }
+    }
+
+    /** Samples dropped because playback fell behind, since the last reset. */
+    public long getDroppedSamples() {
+        synchronized (mLock) {
+            return mDropped;
+        }
+    }
+
+    /** Mean lateness of written samples, from their deadline to the end of the write. */
+    public long getMeanJitterNanos() {
+        synchronized (mLock) {
+            return mPlayed == 0 ? 0 : mJitterTotalNanos / mPlayed;
+        }
+    }
+
+    /** Worst lateness of a written sample, from its deadline to the end of the write. */
+    public long getMaxJitterNanos() {
+        synchronized (mLock) {
+            return mJitterMaxNanos;
+        }
+    }
+
+    public void resetStats() {
+        synchronized (mLock) {
+            mPlayed = 0;
+            mDropped = 0;
+            mJitterTotalNanos = 0;
+            mJitterMaxNanos = 0;
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            VibratorWaveform waveform;
+            synchronized (mLock) {
+                while (mWaveform == null) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        // Keep serving
+                    }
+                }
+                waveform = mWaveform;
+            }
+
+            SamsungHardware hardware = SamsungHardware.getDefault();
+            int before = hardware.getVibratorCurIntensity();
+            playOnce(hardware, waveform);
+            hardware.runVibratorMotor(0);
+            hardware.restoreVibratorIntensity(before);
+
+            synchronized (mLock) {
+                if (mWaveform == waveform) {
+                    mWaveform = null;
+                }
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "played=" + mPlayed + " dropped=" + mDropped
+                            + " jitter mean=" + getMeanJitterNanos() / 1000 + "us"
+                            + " max=" + mJitterMaxNanos / 1000 + "us");
+                }
+            }
+        }
+    }
+
+    private void playOnce(SamsungHardware hardware, VibratorWaveform waveform) {
+        int count = waveform.getSampleCount();
+        long period = waveform.getPeriodNanos();
+        if (count == 0) {
+            return;
+        }
+        hardware.writeVibratorSample(waveform.getSample(0));
+        // Rounded up, the motor is stopped explicitly once the waveform is done
+        hardware.runVibratorMotor((int) ((count * period + 999999) / 1000000));
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            if (mWaveform != waveform) {
+                // Stopped or replaced
+                return;
+            }
+            long deadline = start + i * period;
+            long now = System.nanoTime();
+            if (now - deadline >= period) {
+                synchronized (mLock) {
+                    mDropped++;
+                }
+                continue;
+            }
+            while (now < deadline) {
+                LockSupport.parkNanos(deadline - now);
+                now = System.nanoTime();
+            }
+            hardware.writeVibratorSample(waveform.getSample(i));
+            // Up to when the driver took the sample, not when we started writing it
+            long late = System.nanoTime() - deadline;
+            synchronized (mLock) {
+                mPlayed++;
+                mJitterTotalNanos += late;
+                if (late > mJitterMaxNanos) {
+                    mJitterMaxNanos = late;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Last-write-wins writer for an integer sysfs node.
+ *
+ * Values are posted without blocking; only the newest pending one is kept and
+ * it is flushed to the node from a background thread at most once per
+ * interval. Writes go through the node's shadow, so a value equal to the one
+ * already in the node is not written. A failed write is retried at the same
+ * pace a few times before the value is dropped.
+ */
+public final class CoalescingIntWriter {
+
+    private static final String TAG = "CoalescingIntWriter";
+
+    /* No value pending. Never a valid value for the nodes this is used on. */
+    private static final int NONE = Integer.MIN_VALUE;
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Told about every value that reached the node, on the writer thread.
+     */
+    public interface Listener {
+        void onWritten(int value);
+    }
+
+    private final NodeShadow mShadow;
+    private final long mIntervalMs;
+    private final Listener mListener;
+
+    private final AtomicInteger mPending = new AtomicInteger(NONE);
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    private volatile long mLastFlush;
+    /* Failed writes of mFailedValue so far, both only touched by flush() */
+    private int mFailures;
+    private int mFailedValue = NONE;
+
+    private final ScheduledExecutorService mExecutor;
+
+    private final Runnable mFlush = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    public CoalescingIntWriter(NodeShadow shadow, long intervalMs) {
+        this(shadow, intervalMs, null);
+    }
+
+    public CoalescingIntWriter(NodeShadow shadow, long intervalMs, Listener listener) {
+        mShadow = shadow;
+        mIntervalMs = intervalMs;
+        mListener = listener;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "CoalescingIntWriter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Queue a value for the node, replacing any value not yet written.
+     */
+    public void post(int value) {
+        mPending.set(value);
+        schedule();
+    }
+
+    /**
+     * Write a value right away, dropping any value not yet written so it
+     * cannot overwrite this one later.
+     *
+     * @return true if the node now holds the value
+     */
+    public boolean writeNow(int value) {
+        synchronized (mShadow.getNode()) {
+            mPending.set(NONE);
+            return mShadow.writeInt(value);
+        }
+    }
+
+    /**
+     * The value waiting to be written, or fallback if there is none.
+     */
+    public int getPending(int fallback) {
+        int value = mPending.get();
+        return value != NONE ? value : fallback;
+    }
+
+    private void schedule() {
+        if (mScheduled.compareAndSet(false, true)) {
+            long delay = mLastFlush + mIntervalMs - SystemClock.uptimeMillis();
+            mExecutor.schedule(mFlush, Math.max(0, delay), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        // Clear the flag first: a value posted from now on schedules another flush
+        mScheduled.set(false);
+        boolean retry = false;
+        // Under the node lock, so writeNow() cannot slip in between
+        synchronized (mShadow.getNode()) {
+            int value = mPending.get();
+            if (value == NONE) {
+                return;
+            }
+            mLastFlush = SystemClock.uptimeMillis();
+            if (mShadow.writeInt(value)) {
+                mFailures = 0;
+                if (mListener != null) {
+                    mListener.onWritten(value);
+                }
+            } else {
+                if (value != mFailedValue) {
+                    mFailedValue = value;
+                    mFailures = 0;
+                }
+                if (++mFailures < MAX_ATTEMPTS) {
+                    retry = true;
+                } else {
+                    Log.e(TAG, "Dropping " + value + " for " + mShadow.getNode().getPath());
+                    mFailures = 0;
+                }
+            }
+            if (!retry) {
+                // Keep the value visible to readers until it is in the node
+                mPending.compareAndSet(value, NONE);
+            }
+        }
+        if (retry) {
+            schedule();
+        }
+    }
+}
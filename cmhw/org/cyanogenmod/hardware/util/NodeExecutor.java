@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware.util;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Bounded executor for blocking sysfs operations.
+ *
+ * Operations are queued per node (any object identifying a node or a group
+ * of nodes) and run in order. A worker picks up a node and drains its whole
+ * queue in one go, so a node is never worked on by two threads at once and
+ * bursts on one node cost a single hand-off. A write that is still queued
+ * when a newer write for the same node arrives is cancelled, and cancelled
+ * operations are skipped.
+ */
+public final class NodeExecutor {
+
+    /* Tasks run per hand-off before a busy node yields its worker */
+    private static final int MAX_BATCH = 16;
+
+    private final ExecutorService mWorkers;
+    private final HashMap<Object, NodeQueue> mQueues = new HashMap<Object, NodeQueue>();
+
+    private final class NodeQueue implements Runnable {
+        final Object mNode;
+        final ArrayDeque<FutureTask<?>> mTasks = new ArrayDeque<FutureTask<?>>();
+        FutureTask<?> mPendingWrite;
+        boolean mScheduled;
+
+        NodeQueue(Object node) {
+            mNode = node;
+        }
+
+        public void run() {
+            for (int i = 0; ; i++) {
+                FutureTask<?> task;
+                synchronized (mQueues) {
+                    if (i == MAX_BATCH && !mTasks.isEmpty()) {
+                        mWorkers.execute(this);
+                        return;
+                    }
+                    task = mTasks.poll();
+                    if (task == null) {
+                        mScheduled = false;
+                        mQueues.remove(mNode);
+                        return;
+                    }
+                    if (task == mPendingWrite) {
+                        mPendingWrite = null;
+                    }
+                }
+                // A cancelled task does nothing here
+                task.run();
+            }
+        }
+    }
+
+    public NodeExecutor(int threads, final String name) {
+        mWorkers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Queue a read-like operation on a node.
+     */
+    public <T> Future<T> submit(Object node, Callable<T> operation) {
+        return enqueue(node, operation, false);
+    }
+
+    /**
+     * Queue a write on a node, superseding the previous write on that node if
+     * it has not started yet.
+     */
+    public <T> Future<T> submitWrite(Object node, Callable<T> operation) {
+        return enqueue(node, operation, true);
+    }
+
+    private <T> Future<T> enqueue(Object node, Callable<T> operation, boolean write) {
+        FutureTask<T> task = new FutureTask<T>(operation);
+        synchronized (mQueues) {
+            NodeQueue queue = mQueues.get(node);
+            if (queue == null) {
+                queue = new NodeQueue(node);
+                mQueues.put(node, queue);
+            }
+            if (write) {
+                if (queue.mPendingWrite != null) {
+                    queue.mPendingWrite.cancel(false);
+                    queue.mTasks.remove(queue.mPendingWrite);
+                }
+                queue.mPendingWrite = task;
+            }
+            queue.mTasks.add(task);
+            if (!queue.mScheduled) {
+                queue.mScheduled = true;
+                mWorkers.execute(queue);
+            }
+        }
+        return task;
+    }
+}
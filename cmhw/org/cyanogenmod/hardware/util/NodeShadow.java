@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware.util;
+
+import android.os.FileObserver;
+import android.os.SystemClock;
+
+/**
+ * Write-through in-memory copy of an integer sysfs node.
+ *
+ * Our own writes update the copy, and writes that would not change the node
+ * are dropped. Changes made by others invalidate the copy through an inotify
+ * watch on the node; the next read goes to the node. inotify does not tell
+ * who wrote, so events shortly after one of our own writes are taken to be
+ * ours. Most drivers never notify sysfs changes made from the kernel side,
+ * and a change by others right after ours goes unnoticed by the watch, so
+ * the copy is also re-read once it is older than the refresh interval.
+ */
+public final class NodeShadow {
+
+    public static final long DEFAULT_REFRESH_MS = 5000;
+
+    /* Events this soon after one of our writes are caused by it */
+    private static final long OWN_WRITE_WINDOW_MS = 20;
+
+    private final SysfsNode mNode;
+    private final long mRefreshMs;
+
+    private volatile int mValue;
+    /* uptime after which mValue must be re-read, 0 when it is not valid */
+    private volatile long mValidUntil;
+    /* uptime of our last write to the node */
+    private volatile long mLastWrite;
+
+    private final FileObserver mObserver;
+
+    public NodeShadow(SysfsNode node) {
+        this(node, DEFAULT_REFRESH_MS);
+    }
+
+    public NodeShadow(SysfsNode node, long refreshMs) {
+        mNode = node;
+        mRefreshMs = refreshMs;
+        mObserver = new FileObserver(node.getPath(),
+                FileObserver.MODIFY | FileObserver.CLOSE_WRITE) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (SystemClock.uptimeMillis() - mLastWrite > OWN_WRITE_WINDOW_MS) {
+                    invalidate();
+                }
+            }
+        };
+        mObserver.startWatching();
+    }
+
+    public SysfsNode getNode() {
+        return mNode;
+    }
+
+    /**
+     * Current value of the node.
+     *
+     * @return the value, or defaultValue if the node could not be read
+     */
+    public int readInt(int defaultValue) {
+        if (SystemClock.uptimeMillis() < mValidUntil) {
+            return mValue;
+        }
+        return refresh() ? mValue : defaultValue;
+    }
+
+    /**
+     * Write a value to the node, unless the node is known to hold it already.
+     *
+     * @return true if the node now holds the value
+     */
+    public boolean writeInt(int value) {
+        synchronized (mNode) {
+            if (mValue == value && SystemClock.uptimeMillis() < mValidUntil) {
+                return true;
+            }
+            // Stamped on both sides, the event may be handled while we write
+            mLastWrite = SystemClock.uptimeMillis();
+            boolean written = mNode.writeInt(value);
+            mLastWrite = SystemClock.uptimeMillis();
+            if (!written) {
+                mValidUntil = 0;
+                return false;
+            }
+            publish(value);
+            return true;
+        }
+    }
+
+    /**
+     * Forget the cached value, the next read goes to the node.
+     */
+    public void invalidate() {
+        mValidUntil = 0;
+    }
+
+    private boolean refresh() {
+        synchronized (mNode) {
+            int len = mNode.read();
+            if (len < 0) {
+                mValidUntil = 0;
+                return false;
+            }
+            int value = SysfsCodec.parseInt(mNode.buffer(), len, Integer.MIN_VALUE);
+            if (value == Integer.MIN_VALUE) {
+                mValidUntil = 0;
+                return false;
+            }
+            publish(value);
+            return true;
+        }
+    }
+
+    private void publish(int value) {
+        // mValue must be visible before the volatile store that validates it
+        mValue = value;
+        mValidUntil = SystemClock.uptimeMillis() + mRefreshMs;
+    }
+}
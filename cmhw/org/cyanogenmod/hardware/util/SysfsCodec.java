@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware.util;
+
+/**
+ * Allocation-free encoding and decoding of the decimal values found in sysfs
+ * attributes. Nothing here creates a String, boxes a value or throws on
+ * malformed input.
+ */
+public final class SysfsCodec {
+
+    /* "-2147483648\n" */
+    public static final int MAX_INT_LENGTH = 12;
+
+    private SysfsCodec() {
+    }
+
+    /**
+     * Parse a decimal integer from the first line of a buffer. Leading and
+     * trailing whitespace is ignored.
+     *
+     * @return the parsed value, or defaultValue if the content is empty, not a
+     * number or out of range
+     */
+    public static int parseInt(byte[] buf, int len, int defaultValue) {
+        int i = 0;
+        while (i < len && isSpace(buf[i])) {
+            i++;
+        }
+        boolean negative = false;
+        if (i < len && (buf[i] == '-' || buf[i] == '+')) {
+            negative = buf[i] == '-';
+            i++;
+        }
+        int start = i;
+        long value = 0;
+        while (i < len && buf[i] >= '0' && buf[i] <= '9') {
+            value = value * 10 + (buf[i] - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return defaultValue;
+            }
+            i++;
+        }
+        if (i == start) {
+            return defaultValue;
+        }
+        while (i < len && (buf[i] == ' ' || buf[i] == '\t' || buf[i] == '\r')) {
+            i++;
+        }
+        // Only the first line counts, like readLine()
+        if (i != len && buf[i] != '\n' && buf[i] != 0) {
+            return defaultValue;
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value > Integer.MAX_VALUE) {
+            return defaultValue;
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parse a boolean stored as an integer, any non-zero value being true.
+     */
+    public static boolean parseBoolean(byte[] buf, int len, boolean defaultValue) {
+        // No boolean node ever holds INT_MIN, use it to detect bad content
+        int value = parseInt(buf, len, Integer.MIN_VALUE);
+        if (value == Integer.MIN_VALUE) {
+            return defaultValue;
+        }
+        return value != 0;
+    }
+
+    /**
+     * Encode a value as a decimal line at the start of a buffer, which must
+     * hold at least {@link #MAX_INT_LENGTH} bytes.
+     *
+     * @return the number of bytes written, newline included
+     */
+    public static int formatInt(int value, byte[] buf) {
+        long v = value;
+        int len = 0;
+        if (v < 0) {
+            buf[len++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long p = 10; p <= v; p *= 10) {
+            digits++;
+        }
+        for (int i = len + digits - 1; i >= len; i--) {
+            buf[i] = (byte) ('0' + (v % 10));
+            v /= 10;
+        }
+        len += digits;
+        buf[len++] = '\n';
+        return len;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware.util;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A sysfs attribute that is kept open for the lifetime of the node.
+ *
+ * Reads and writes are positional (pread/pwrite at offset 0) through a reused
+ * buffer, so each access costs one syscall instead of open + read/write +
+ * close. Reads go through a read-only descriptor and writes through a
+ * write-only one, each opened on first use: many attributes only grant one
+ * of the two permissions. The descriptors are dropped on any I/O error and
+ * reopened on the next access.
+ */
+public final class SysfsNode {
+
+    private static final String TAG = "SysfsNode";
+
+    /* sysfs attributes never return more than a page */
+    private static final int BUFFER_SIZE = 4096;
+
+    private final String mPath;
+    private final SysfsStats mStats;
+    private final byte[] mBytes = new byte[BUFFER_SIZE];
+    private final ByteBuffer mBuffer = ByteBuffer.wrap(mBytes);
+
+    private FileInputStream mInput;
+    private FileChannel mReadChannel;
+    private FileOutputStream mOutput;
+    private FileChannel mWriteChannel;
+
+    public SysfsNode(String path) {
+        mPath = path;
+        mStats = SysfsStats.register(mPath);
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * Whether the node is present. Only meant for capability checks, regular
+     * accesses simply fail when the node is missing.
+     */
+    public boolean exists() {
+        return new File(mPath).exists();
+    }
+
+    /**
+     * Read the first line of the node.
+     *
+     * @return the line without its terminator, or null if the read failed
+     */
+    public synchronized String readLine() {
+        int len = read();
+        if (len < 0) {
+            return null;
+        }
+        int end = 0;
+        while (end < len && mBytes[end] != '\n') {
+            end++;
+        }
+        return new String(mBytes, 0, end);
+    }
+
+    /**
+     * Write a single line to the node.
+     *
+     * @return true if the whole value was accepted by the kernel
+     */
+    public synchronized boolean writeLine(String value) {
+        int len = value.length();
+        if (len >= BUFFER_SIZE) {
+            Log.e(TAG, "Value too long for " + mPath);
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            mBytes[i] = (byte) value.charAt(i);
+        }
+        mBytes[len] = '\n';
+        return write(len + 1);
+    }
+
+    /**
+     * Read the node as a decimal integer, without allocating.
+     *
+     * @return the value, or defaultValue if the read failed or the content is
+     * not a number
+     */
+    public synchronized int readInt(int defaultValue) {
+        int len = read();
+        if (len < 0) {
+            return defaultValue;
+        }
+        return SysfsCodec.parseInt(mBytes, len, defaultValue);
+    }
+
+    /**
+     * Read the node as a boolean stored as an integer, without allocating.
+     *
+     * @return true for any non-zero value, defaultValue if the read failed or
+     * the content is not a number
+     */
+    public synchronized boolean readBoolean(boolean defaultValue) {
+        int len = read();
+        if (len < 0) {
+            return defaultValue;
+        }
+        return SysfsCodec.parseBoolean(mBytes, len, defaultValue);
+    }
+
+    /**
+     * Write a decimal integer to the node, without allocating.
+     *
+     * @return true if the value was accepted by the kernel
+     */
+    public synchronized boolean writeInt(int value) {
+        return write(SysfsCodec.formatInt(value, mBytes));
+    }
+
+    /**
+     * Release the underlying file descriptor. The node stays usable and is
+     * reopened on the next access.
+     */
+    public synchronized void close() {
+        closeChannel();
+    }
+
+    /*
+     * Fill mBytes from offset 0 of the node; returns the number of bytes read
+     * or -1 on failure. Callers must hold the node lock.
+     */
+    int read() {
+        long start = SysfsStats.isEnabled() ? System.nanoTime() : 0;
+        int len = doRead();
+        if (start != 0) {
+            mStats.record(SysfsStats.READ, System.nanoTime() - start, len >= 0);
+        }
+        return len;
+    }
+
+    /*
+     * Write the first len bytes of mBytes at offset 0 of the node. Callers
+     * must hold the node lock.
+     */
+    boolean write(int len) {
+        long start = SysfsStats.isEnabled() ? System.nanoTime() : 0;
+        boolean success = doWrite(len);
+        if (start != 0) {
+            mStats.record(SysfsStats.WRITE, System.nanoTime() - start, success);
+        }
+        return success;
+    }
+
+    private int doRead() {
+        try {
+            FileChannel channel = openReadChannel();
+            mBuffer.clear();
+            int len = channel.read(mBuffer, 0);
+            return len < 0 ? 0 : len;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read from " + mPath, e);
+            closeChannel();
+            return -1;
+        }
+    }
+
+    private boolean doWrite(int len) {
+        try {
+            FileChannel channel = openWriteChannel();
+            mBuffer.clear();
+            mBuffer.limit(len);
+            return channel.write(mBuffer, 0) == len;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write to " + mPath, e);
+            closeChannel();
+            return false;
+        }
+    }
+
+    byte[] buffer() {
+        return mBytes;
+    }
+
+    private FileChannel openReadChannel() throws IOException {
+        if (mReadChannel == null) {
+            mInput = new FileInputStream(mPath);
+            mReadChannel = mInput.getChannel();
+        }
+        return mReadChannel;
+    }
+
+    private FileChannel openWriteChannel() throws IOException {
+        if (mWriteChannel == null) {
+            // FileOutputStream would happily create a missing node
+            if (!exists()) {
+                throw new FileNotFoundException(mPath);
+            }
+            mOutput = new FileOutputStream(mPath);
+            mWriteChannel = mOutput.getChannel();
+        }
+        return mWriteChannel;
+    }
+
+    private void closeChannel() {
+        closeQuietly(mInput);
+        closeQuietly(mOutput);
+        mInput = null;
+        mReadChannel = null;
+        mOutput = null;
+        mWriteChannel = null;
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // Ignore exception, no recovery possible
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.hardware.util;
+
+import android.os.SystemProperties;
+import android.util.Log;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Per-node I/O counters and latency histograms for sysfs accesses.
+ *
+ * Collection is off by default and costs a single volatile load per access
+ * in that state. It is enabled with the persist.cmhw.io_stats property or at
+ * runtime with {@link #setEnabled}. Histogram buckets are powers of two in
+ * microseconds: bucket 0 is below 1us, bucket n covers [2^(n-1), 2^n) us and
+ * the last bucket takes everything slower.
+ */
+public final class SysfsStats {
+
+    private static final String TAG = "SysfsStats";
+
+    private static final int BUCKETS = 22; /* up to ~1s */
+
+    static final int READ = 0;
+    static final int WRITE = 1;
+
+    private static volatile boolean sEnabled =
+            SystemProperties.getBoolean("persist.cmhw.io_stats", false);
+
+    /* One entry per path, however many nodes were opened on it */
+    private static final CopyOnWriteArrayList<SysfsStats> sStats =
+            new CopyOnWriteArrayList<SysfsStats>();
+    private static final HashMap<String, SysfsStats> sStatsByPath =
+            new HashMap<String, SysfsStats>();
+
+    private final String mPath;
+    private final long[] mCount = new long[2];
+    private final long[] mErrors = new long[2];
+    private final long[] mTotalNs = new long[2];
+    private final long[] mMaxNs = new long[2];
+    private final long[][] mHistogram = new long[2][BUCKETS];
+
+    private SysfsStats(String path) {
+        mPath = path;
+    }
+
+    static SysfsStats register(String path) {
+        synchronized (sStatsByPath) {
+            SysfsStats stats = sStatsByPath.get(path);
+            if (stats == null) {
+                stats = new SysfsStats(path);
+                sStatsByPath.put(path, stats);
+                sStats.add(stats);
+            }
+            return stats;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    synchronized void record(int op, long nanos, boolean success) {
+        mCount[op]++;
+        if (!success) {
+            mErrors[op]++;
+        }
+        mTotalNs[op] += nanos;
+        if (nanos > mMaxNs[op]) {
+            mMaxNs[op] = nanos;
+        }
+        long micros = nanos / 1000;
+        int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+        mHistogram[op][Math.min(bucket, BUCKETS - 1)]++;
+    }
+
+    private synchronized void reset() {
+        for (int op = READ; op <= WRITE; op++) {
+            mCount[op] = 0;
+            mErrors[op] = 0;
+            mTotalNs[op] = 0;
+            mMaxNs[op] = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                mHistogram[op][i] = 0;
+            }
+        }
+    }
+
+    private synchronized void dumpNode(PrintWriter pw) {
+        if (mCount[READ] == 0 && mCount[WRITE] == 0) {
+            return;
+        }
+        pw.println(mPath + ":");
+        dumpOp(pw, "read", READ);
+        dumpOp(pw, "write", WRITE);
+    }
+
+    private void dumpOp(PrintWriter pw, String name, int op) {
+        long count = mCount[op];
+        if (count == 0) {
+            return;
+        }
+        pw.println("  " + name + ": count=" + count + " errors=" + mErrors[op]
+                + " avg=" + (mTotalNs[op] / count / 1000) + "us"
+                + " max=" + (mMaxNs[op] / 1000) + "us");
+        pw.print("   ");
+        for (int i = 0; i < BUCKETS; i++) {
+            if (mHistogram[op][i] == 0) {
+                continue;
+            }
+            String label = i == BUCKETS - 1 ? ">=" + (1L << (i - 1)) : "<" + (1L << i);
+            pw.print(" " + label + "us:" + mHistogram[op][i]);
+        }
+        pw.println();
+    }
+
+    /**
+     * Print the statistics of every node accessed so far.
+     */
+    public static void dump(PrintWriter pw) {
+        pw.println("sysfs I/O statistics (" + (sEnabled ? "enabled" : "disabled") + "):");
+        for (SysfsStats stats : sStats) {
+            stats.dumpNode(pw);
+        }
+        pw.flush();
+    }
+
+    /**
+     * Write the output of {@link #dump} to a file.
+     *
+     * @return true on success
+     */
+    public static boolean export(String path) {
+        PrintWriter pw = null;
+        try {
+            pw = new PrintWriter(new FileWriter(path));
+            dump(pw);
+            return !pw.checkError();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not export statistics to " + path, e);
+            return false;
+        } finally {
+            if (pw != null) {
+                pw.close();
+            }
+        }
+    }
+
+    /**
+     * Clear the statistics of every node.
+     */
+    public static void resetAll() {
+        for (SysfsStats stats : sStats) {
+            stats.reset();
+        }
+    }
+}
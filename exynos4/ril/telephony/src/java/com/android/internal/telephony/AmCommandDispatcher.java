@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.telephony.Rlog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the "am" command lines sent by the modem with RIL_UNSOL_AM.
+ *
+ * The broadcast, start and startservice verbs are parsed into an Intent and
+ * handed to the framework directly, with the same default users as am. Any
+ * other verb, or an option we do not know, falls back to running the am
+ * binary. Commands run one at a time on a worker thread, never on the
+ * receive thread; a command that is already waiting to run is not queued a
+ * second time.
+ */
+final class AmCommandDispatcher {
+
+    private static final String TAG = "AmCommandDispatcher";
+
+    /* Commands waiting to run before new ones are dropped */
+    private static final int MAX_PENDING = 16;
+    private static final long IDLE_TIMEOUT_S = 30;
+
+    private final Context mContext;
+    private final ThreadPoolExecutor mExecutor;
+    /* Command lines queued and not started yet, guarded by itself */
+    private final HashSet<String> mPending = new HashSet<String>();
+
+    AmCommandDispatcher(Context context) {
+        mContext = context;
+        mExecutor = new ThreadPoolExecutor(1, 1, IDLE_TIMEOUT_S, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, TAG);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue a command line, without the leading "am". Returns immediately.
+     */
+    void dispatch(String command) {
+        if (command == null) {
+            return;
+        }
+        final String line = command.trim();
+        if (line.isEmpty()) {
+            return;
+        }
+        synchronized (mPending) {
+            if (!mPending.add(line)) {
+                Rlog.d(TAG, "Coalesced am " + line);
+                return;
+            }
+        }
+        try {
+            mExecutor.execute(new Runnable() {
+                public void run() {
+                    synchronized (mPending) {
+                        mPending.remove(line);
+                    }
+                    execute(line);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (mPending) {
+                mPending.remove(line);
+            }
+            Rlog.e(TAG, "Too many pending commands, dropped am " + line);
+        }
+    }
+
+    private void execute(String line) {
+        String[] args = line.split("\\s+");
+        try {
+            if (run(args)) {
+                return;
+            }
+        } catch (RuntimeException e) {
+            // Malformed arguments or rejected by the framework, let am report it
+            Rlog.w(TAG, "Could not dispatch am " + line + " in process", e);
+        }
+        exec(line);
+    }
+
+    /* Returns false when the command has to go through the am binary */
+    private boolean run(String[] args) {
+        String verb = args[0];
+        if (!"broadcast".equals(verb) && !"start".equals(verb)
+                && !"startservice".equals(verb)) {
+            return false;
+        }
+
+        Intent intent = new Intent();
+        UserHandle user = null;
+        String data = null;
+        String type = null;
+        for (int i = 1; i < args.length; i++) {
+            String opt = args[i];
+            if (i + 1 >= args.length && !"--receiver-foreground".equals(opt)) {
+                return false;
+            }
+            if ("-a".equals(opt)) {
+                intent.setAction(args[++i]);
+            } else if ("-d".equals(opt)) {
+                data = args[++i];
+            } else if ("-t".equals(opt)) {
+                type = args[++i];
+            } else if ("-c".equals(opt)) {
+                intent.addCategory(args[++i]);
+            } else if ("-n".equals(opt)) {
+                ComponentName component = ComponentName.unflattenFromString(args[++i]);
+                if (component == null) {
+                    return false;
+                }
+                intent.setComponent(component);
+            } else if ("-p".equals(opt)) {
+                intent.setPackage(args[++i]);
+            } else if ("-f".equals(opt)) {
+                intent.setFlags(Integer.decode(args[++i]));
+            } else if ("--receiver-foreground".equals(opt)) {
+                intent.addFlags(Intent.FLAG_RECEIVER_FOREGROUND);
+            } else if ("--user".equals(opt)) {
+                user = parseUser(args[++i]);
+            } else if ("-e".equals(opt) || "--es".equals(opt)) {
+                if (i + 2 >= args.length) {
+                    return false;
+                }
+                intent.putExtra(args[++i], args[++i]);
+            } else if ("--ei".equals(opt)) {
+                if (i + 2 >= args.length) {
+                    return false;
+                }
+                intent.putExtra(args[++i], Integer.decode(args[++i]).intValue());
+            } else if ("--el".equals(opt)) {
+                if (i + 2 >= args.length) {
+                    return false;
+                }
+                intent.putExtra(args[++i], Long.valueOf(args[++i]).longValue());
+            } else if ("--ez".equals(opt)) {
+                if (i + 2 >= args.length) {
+                    return false;
+                }
+                intent.putExtra(args[++i], Boolean.valueOf(args[++i]).booleanValue());
+            } else {
+                return false;
+            }
+        }
+        if (data != null) {
+            intent.setDataAndType(Uri.parse(data), type);
+        } else if (type != null) {
+            intent.setType(type);
+        }
+
+        if ("broadcast".equals(verb)) {
+            mContext.sendBroadcastAsUser(intent, user != null ? user : UserHandle.ALL);
+        } else if ("start".equals(verb)) {
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            mContext.startActivityAsUser(intent, user != null ? user : UserHandle.CURRENT);
+        } else {
+            mContext.startServiceAsUser(intent, user != null ? user : UserHandle.CURRENT);
+        }
+        return true;
+    }
+
+    private static UserHandle parseUser(String user) {
+        if ("all".equals(user)) {
+            return UserHandle.ALL;
+        }
+        if ("current".equals(user) || "cur".equals(user)) {
+            return UserHandle.CURRENT;
+        }
+        return new UserHandle(Integer.parseInt(user));
+    }
+
+    /* Runs on the worker, so at most one am process exists at a time */
+    private static void exec(String line) {
+        Rlog.d(TAG, "Executing am " + line);
+        Process process = null;
+        try {
+            process = Runtime.getRuntime().exec("am " + line);
+            // Drain the output so am never blocks on a full pipe
+            InputStream in = process.getInputStream();
+            byte[] buffer = new byte[256];
+            while (in.read(buffer) >= 0) {
+                // Discard
+            }
+            process.waitFor();
+        } catch (IOException e) {
+            Rlog.e(TAG, "am " + line + " could not be executed.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (process != null) {
+                process.destroy();
+            }
+        }
+    }
+}
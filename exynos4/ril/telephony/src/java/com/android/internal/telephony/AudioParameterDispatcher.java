@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.media.AudioManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.telephony.Rlog;
+
+/**
+ * Applies the audio parameters driven by modem events off the receive thread.
+ *
+ * Parameters are set by index and pushed to the audio HAL from a dedicated
+ * thread, shortly after the first change. A value equal to the one last
+ * applied is dropped; several changes before the push only leave the latest
+ * value, and a flip that returns to the applied value cancels out. All
+ * parameters changed by then go out in a single setParameters() call.
+ *
+ * The audio HAL can lose what was applied, when a call ends or mediaserver
+ * restarts, so the owner calls {@link #reset} at those points.
+ */
+final class AudioParameterDispatcher {
+
+    private static final String TAG = "AudioParameterDispatcher";
+
+    /* Events flap during handovers; wait this long for them to settle */
+    private static final long COALESCE_DELAY_MS = 50;
+
+    private final AudioManager mAudioManager;
+    private final String[] mKeys;
+    private final Handler mHandler;
+
+    /* Guarded by this; a null pending value means nothing to push */
+    private final String[] mPending;
+    private final String[] mApplied;
+    private boolean mScheduled;
+
+    private final Runnable mFlush = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param keys the parameter names, indexed as in {@link #set}
+     */
+    AudioParameterDispatcher(AudioManager audioManager, String... keys) {
+        mAudioManager = audioManager;
+        mKeys = keys;
+        mPending = new String[keys.length];
+        mApplied = new String[keys.length];
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Set parameter index to value. Returns immediately.
+     */
+    synchronized void set(int index, String value) {
+        if (value.equals(mApplied[index])) {
+            // Undo a change still waiting to be pushed, if any
+            mPending[index] = null;
+            return;
+        }
+        mPending[index] = value;
+        if (!mScheduled) {
+            mScheduled = true;
+            mHandler.postDelayed(mFlush, COALESCE_DELAY_MS);
+        }
+    }
+
+    /**
+     * Forget the values applied so far, so the next value set for any
+     * parameter is pushed even if it equals the last one applied.
+     */
+    synchronized void reset() {
+        for (int i = 0; i < mApplied.length; i++) {
+            mApplied[i] = null;
+        }
+    }
+
+    private void flush() {
+        StringBuilder parameters = null;
+        synchronized (this) {
+            mScheduled = false;
+            for (int i = 0; i < mPending.length; i++) {
+                if (mPending[i] == null) {
+                    continue;
+                }
+                if (parameters == null) {
+                    parameters = new StringBuilder();
+                } else {
+                    parameters.append(';');
+                }
+                parameters.append(mKeys[i]).append('=').append(mPending[i]);
+                mApplied[i] = mPending[i];
+                mPending[i] = null;
+            }
+        }
+        if (parameters != null) {
+            Rlog.d(TAG, "Setting audio parameters " + parameters);
+            mAudioManager.setParameters(parameters.toString());
+        }
+    }
+}
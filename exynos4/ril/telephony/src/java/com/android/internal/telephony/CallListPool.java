@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.Parcel;
+import android.telephony.PhoneNumberUtils;
+
+import java.util.ArrayList;
+
+/**
+ * Reusable objects for decoding call lists without steady allocation.
+ *
+ * Lists and DriverCall/UUSInfo objects rotate through a few generations:
+ * the list returned for one poll is only reused several polls later, long
+ * after the call tracker is done with it. Numbers and names are kept per
+ * call index together with their encoded form in the parcel, and the same
+ * String is returned for as long as the encoded bytes do not change.
+ *
+ * Not thread-safe; used from the RIL receive thread only.
+ */
+final class CallListPool {
+
+    private static final int GENERATIONS = 3;
+
+    @SuppressWarnings("unchecked")
+    private final ArrayList<DriverCall>[] mLists = new ArrayList[GENERATIONS];
+    private final DriverCall[][] mCalls = new DriverCall[GENERATIONS][];
+    private final UUSInfo[][] mUusInfos = new UUSInfo[GENERATIONS][];
+    private int mGeneration;
+
+    private final StringSlot[] mNumbers = new StringSlot[CallStateTracker.MAX_INDEX + 1];
+    private final StringSlot[] mNames = new StringSlot[CallStateTracker.MAX_INDEX + 1];
+
+    CallListPool() {
+        for (int g = 0; g < GENERATIONS; g++) {
+            mLists[g] = new ArrayList<DriverCall>();
+            mCalls[g] = new DriverCall[0];
+            mUusInfos[g] = new UUSInfo[0];
+        }
+        for (int i = 0; i <= CallStateTracker.MAX_INDEX; i++) {
+            mNumbers[i] = new StringSlot();
+            mNames[i] = new StringSlot();
+        }
+    }
+
+    /**
+     * Move to the next generation and return its list, emptied and able to
+     * hold num calls.
+     */
+    ArrayList<DriverCall> startList(int num) {
+        mGeneration = (mGeneration + 1) % GENERATIONS;
+        if (mCalls[mGeneration].length < num) {
+            DriverCall[] calls = new DriverCall[num];
+            UUSInfo[] uusInfos = new UUSInfo[num];
+            for (int i = 0; i < num; i++) {
+                calls[i] = new DriverCall();
+                uusInfos[i] = new UUSInfo();
+            }
+            mCalls[mGeneration] = calls;
+            mUusInfos[mGeneration] = uusInfos;
+        }
+        ArrayList<DriverCall> list = mLists[mGeneration];
+        list.clear();
+        list.ensureCapacity(num);
+        return list;
+    }
+
+    /* Every field is overwritten by the caller, except uusInfo which is cleared here */
+    DriverCall obtainCall(int i) {
+        DriverCall dc = mCalls[mGeneration][i];
+        dc.uusInfo = null;
+        return dc;
+    }
+
+    UUSInfo obtainUusInfo(int i) {
+        return mUusInfos[mGeneration][i];
+    }
+
+    /**
+     * Read a number and apply its TOA, reusing the previous String of this
+     * call index when neither changed.
+     */
+    String readNumber(Parcel p, int index, int toa) {
+        if (index < 0 || index > CallStateTracker.MAX_INDEX) {
+            return PhoneNumberUtils.stringFromStringAndTOA(p.readString(), toa);
+        }
+        StringSlot slot = mNumbers[index];
+        String raw = slot.read(p);
+        if (raw != slot.mDerivedFrom || toa != slot.mToa || slot.mDerived == null) {
+            slot.mDerived = PhoneNumberUtils.stringFromStringAndTOA(raw, toa);
+            slot.mDerivedFrom = raw;
+            slot.mToa = toa;
+        }
+        return slot.mDerived;
+    }
+
+    String readName(Parcel p, int index) {
+        if (index < 0 || index > CallStateTracker.MAX_INDEX) {
+            return p.readString();
+        }
+        return mNames[index].read(p);
+    }
+
+    /**
+     * Sort by call index. Insertion sort: there are only a handful of calls
+     * and they mostly come in order already.
+     */
+    static void sortByIndex(ArrayList<DriverCall> calls) {
+        for (int i = 1, n = calls.size(); i < n; i++) {
+            DriverCall dc = calls.get(i);
+            int j = i - 1;
+            while (j >= 0 && calls.get(j).compareTo(dc) > 0) {
+                calls.set(j + 1, calls.get(j));
+                j--;
+            }
+            calls.set(j + 1, dc);
+        }
+    }
+
+    /**
+     * Last string read at one position, with its encoding in the parcel
+     * (length, then UTF-16 code units padded to a multiple of four bytes).
+     */
+    private static final class StringSlot {
+        /* Longer strings are not cached */
+        private static final int MAX_WORDS = 64;
+
+        private final int[] mWords = new int[MAX_WORDS];
+        private final int[] mScratch = new int[MAX_WORDS];
+        private int mLength = Integer.MIN_VALUE;
+        private String mValue;
+
+        /* Number derived from mValue by readNumber() */
+        String mDerived;
+        String mDerivedFrom;
+        int mToa;
+
+        String read(Parcel p) {
+            int start = p.dataPosition();
+            int length = p.readInt();
+            if (length < 0) {
+                mLength = length;
+                mValue = null;
+                return null;
+            }
+            int words = ((length + 1) * 2 + 3) / 4;
+            if (words > MAX_WORDS) {
+                p.setDataPosition(start);
+                mLength = Integer.MIN_VALUE;
+                mValue = null;
+                return p.readString();
+            }
+            boolean same = length == mLength;
+            for (int i = 0; i < words; i++) {
+                int word = p.readInt();
+                mScratch[i] = word;
+                same &= word == mWords[i];
+            }
+            if (same) {
+                return mValue;
+            }
+            p.setDataPosition(start);
+            mValue = p.readString();
+            mLength = length;
+            System.arraycopy(mScratch, 0, mWords, 0, words);
+            return mValue;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.util.List;
+
+/**
+ * Remembers the last call list reported by the modem and tells what changed.
+ *
+ * Calls are tracked by their index. {@link #update} returns a mask with bit
+ * n set when the call with index n appeared, disappeared or changed since
+ * the previous list. Values are copied out of the DriverCall objects, so
+ * those can be reused by the caller afterwards.
+ */
+final class CallStateTracker {
+
+    /* Call indices are small (1-7 on GSM); anything above is always reported */
+    static final int MAX_INDEX = 31;
+    static final int ALL_CHANGED = -1;
+
+    static final int PRIVACY_UNCHANGED = 0;
+    static final int PRIVACY_ON = 1;
+    static final int PRIVACY_OFF = 2;
+
+    private static final int FLAG_PRESENT = 1 << 0;
+    private static final int FLAG_MPTY = 1 << 1;
+    private static final int FLAG_MT = 1 << 2;
+    private static final int FLAG_VOICE = 1 << 3;
+    private static final int FLAG_VOICE_PRIVACY = 1 << 4;
+    private static final int FLAG_UUS = 1 << 5;
+
+    private static final int PRIVACY_UNKNOWN = -1;
+
+    private final int[] mFlags = new int[MAX_INDEX + 1];
+    private final int[] mState = new int[MAX_INDEX + 1];
+    private final int[] mToa = new int[MAX_INDEX + 1];
+    private final int[] mAls = new int[MAX_INDEX + 1];
+    private final int[] mNumberPresentation = new int[MAX_INDEX + 1];
+    private final int[] mNamePresentation = new int[MAX_INDEX + 1];
+    private final String[] mNumber = new String[MAX_INDEX + 1];
+    private final String[] mName = new String[MAX_INDEX + 1];
+
+    private int mPresent;
+    private volatile int mChanged;
+    private int mVoicePrivacy = PRIVACY_UNKNOWN;
+
+    /**
+     * Take a new call list.
+     *
+     * @return the indices of the calls that changed, as a bit mask
+     */
+    int update(List<DriverCall> calls) {
+        int present = 0;
+        int changed = 0;
+        for (int i = 0, n = calls.size(); i < n; i++) {
+            DriverCall dc = calls.get(i);
+            if (dc.index < 0 || dc.index > MAX_INDEX) {
+                changed = ALL_CHANGED;
+                continue;
+            }
+            int bit = 1 << dc.index;
+            present |= bit;
+            if (!store(dc)) {
+                changed |= bit;
+            }
+        }
+        // Calls that are gone
+        int removed = mPresent & ~present;
+        for (int index = 0; index <= MAX_INDEX; index++) {
+            if ((removed & (1 << index)) != 0) {
+                mFlags[index] = 0;
+                mNumber[index] = null;
+                mName[index] = null;
+            }
+        }
+        mPresent = present;
+        mChanged = changed | removed;
+        return mChanged;
+    }
+
+    /**
+     * Mask returned by the last {@link #update}.
+     */
+    int getChanged() {
+        return mChanged;
+    }
+
+    /**
+     * Voice privacy transition for a call list. The state of the last call in
+     * the list is the effective one; it is reported only when it differs from
+     * the previous list. An empty list forgets the state, so the first list of
+     * the next call always reports it.
+     */
+    int updateVoicePrivacy(List<DriverCall> calls) {
+        if (calls.isEmpty()) {
+            mVoicePrivacy = PRIVACY_UNKNOWN;
+            return PRIVACY_UNCHANGED;
+        }
+        int privacy = calls.get(calls.size() - 1).isVoicePrivacy ? PRIVACY_ON : PRIVACY_OFF;
+        if (privacy == mVoicePrivacy) {
+            return PRIVACY_UNCHANGED;
+        }
+        mVoicePrivacy = privacy;
+        return privacy;
+    }
+
+    void reset() {
+        for (int index = 0; index <= MAX_INDEX; index++) {
+            mFlags[index] = 0;
+            mNumber[index] = null;
+            mName[index] = null;
+        }
+        mPresent = 0;
+        mChanged = 0;
+        mVoicePrivacy = PRIVACY_UNKNOWN;
+    }
+
+    /* Copy the call in, returning true if it matched what was stored */
+    private boolean store(DriverCall dc) {
+        int i = dc.index;
+        int flags = FLAG_PRESENT
+                | (dc.isMpty ? FLAG_MPTY : 0)
+                | (dc.isMT ? FLAG_MT : 0)
+                | (dc.isVoice ? FLAG_VOICE : 0)
+                | (dc.isVoicePrivacy ? FLAG_VOICE_PRIVACY : 0)
+                | (dc.uusInfo != null ? FLAG_UUS : 0);
+        int state = dc.state.ordinal();
+        boolean same = mFlags[i] == flags
+                && mState[i] == state
+                && mToa[i] == dc.TOA
+                && mAls[i] == dc.als
+                && mNumberPresentation[i] == dc.numberPresentation
+                && mNamePresentation[i] == dc.namePresentation
+                && equals(mNumber[i], dc.number)
+                && equals(mName[i], dc.name);
+        if (!same) {
+            mFlags[i] = flags;
+            mState[i] = state;
+            mToa[i] = dc.TOA;
+            mAls[i] = dc.als;
+            mNumberPresentation[i] = dc.numberPresentation;
+            mNamePresentation[i] = dc.namePresentation;
+            mNumber[i] = dc.number;
+            mName[i] = dc.name;
+        }
+        return same;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == b || (a != null && a.equals(b));
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.telephony.Rlog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Records the parcels received from rild to a file, for offline analysis.
+ *
+ * The file starts with a magic int and a format version, followed by one
+ * record per parcel:
+ * <pre>
+ * long  elapsed realtime at reception, in nanoseconds
+ * int   length of the parcel data
+ * byte  parcel data, as returned by Parcel.marshall()
+ * </pre>
+ * All values are big endian. The parcel data starts with the response type
+ * (RESPONSE_SOLICITED or RESPONSE_UNSOLICITED), exactly as read from the
+ * socket. A {@link Reader} turns the records back into parcels that can be
+ * fed to processSolicited() and processUnsolicited().
+ *
+ * Recordings hold everything the modem reports, unredacted: phone numbers
+ * of calls, SMS PDUs, IMSI, ICCID and cell locations. Recording is off
+ * unless persist.ril.record_parcels names a file, is only honoured on
+ * debuggable builds, and the file is made readable by its owner only.
+ * Records reach the file at most a second after they are received.
+ */
+final class ParcelRecorder {
+
+    private static final String TAG = "ParcelRecorder";
+
+    static final String PATH_PROPERTY = "persist.ril.record_parcels";
+
+    private static final int MAGIC = 0x52494c50; /* "RILP" */
+    private static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /* Longest time a record stays in the buffer only */
+    private static final long FLUSH_DELAY_MS = 1000;
+    /* Records larger than this are corrupt, rild never sends anything close */
+    private static final int MAX_RECORD = 1024 * 1024;
+
+    private final String mPath;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    /* Null once closed or after a write error; guarded by this */
+    private DataOutputStream mOut;
+    private long mRecords;
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlush = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    private ParcelRecorder(String path, DataOutputStream out) {
+        mPath = path;
+        mOut = out;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Start a new recording at path, replacing any previous file.
+     *
+     * @return the recorder, or null if the build is not debuggable or the
+     * file could not be created
+     */
+    static ParcelRecorder create(String path) {
+        if (!SystemProperties.getBoolean("ro.debuggable", false)) {
+            Rlog.w(TAG, "Not recording to " + path + " on a non-debuggable build");
+            return null;
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(path), BUFFER_SIZE));
+            File file = new File(path);
+            if (!file.setReadable(false, false) || !file.setReadable(true, true)
+                    || !file.setWritable(false, false) || !file.setWritable(true, true)) {
+                throw new IOException("Could not restrict access to " + path);
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            return new ParcelRecorder(path, out);
+        } catch (IOException e) {
+            Rlog.e(TAG, "Could not create recording " + path, e);
+            closeQuietly(out);
+            return null;
+        }
+    }
+
+    /**
+     * Append the whole parcel, whatever its current position, which is left
+     * unchanged.
+     */
+    synchronized void record(Parcel p) {
+        if (mOut == null) {
+            return;
+        }
+        byte[] data = p.marshall();
+        try {
+            mOut.writeLong(SystemClock.elapsedRealtimeNanos());
+            mOut.writeInt(data.length);
+            mOut.write(data);
+            mRecords++;
+        } catch (IOException e) {
+            Rlog.e(TAG, "Recording to " + mPath + " stopped", e);
+            closeQuietly(mOut);
+            mOut = null;
+            return;
+        }
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlush, FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Write the buffered records out to the file.
+     */
+    synchronized void flush() {
+        mFlushScheduled = false;
+        if (mOut == null) {
+            return;
+        }
+        try {
+            mOut.flush();
+        } catch (IOException e) {
+            Rlog.e(TAG, "Recording to " + mPath + " stopped", e);
+            closeQuietly(mOut);
+            mOut = null;
+        }
+    }
+
+    /**
+     * Flush and stop recording. Later calls to {@link #record} are ignored.
+     */
+    synchronized void close() {
+        mHandler.removeCallbacks(mFlush);
+        flush();
+        closeQuietly(mOut);
+        mOut = null;
+        mThread.quit();
+    }
+
+    synchronized String getState() {
+        return mPath + " records=" + mRecords + (mOut == null ? " (stopped)" : "");
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // Ignore exception, no recovery possible
+            }
+        }
+    }
+
+    /**
+     * Reads back a recording, one parcel at a time.
+     */
+    static final class Reader implements Closeable {
+        private final DataInputStream mIn;
+        private long mTimestamp;
+
+        Reader(String path) throws IOException {
+            mIn = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE));
+            try {
+                if (mIn.readInt() != MAGIC || mIn.readInt() != VERSION) {
+                    throw new IOException("Not a parcel recording: " + path);
+                }
+            } catch (IOException e) {
+                closeQuietly(mIn);
+                throw e;
+            }
+        }
+
+        /**
+         * Read the next record. The parcel is positioned after the response
+         * type, like the parcels handed to processSolicited() and
+         * processUnsolicited(); the caller recycles it.
+         *
+         * @return the parcel, or null at the end of the recording
+         */
+        Parcel next() throws IOException {
+            long timestamp;
+            try {
+                timestamp = mIn.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            int length = mIn.readInt();
+            if (length < 4 || length > MAX_RECORD) {
+                throw new IOException("Corrupt record of " + length + " bytes");
+            }
+            byte[] data = new byte[length];
+            mIn.readFully(data);
+            mTimestamp = timestamp;
+
+            Parcel p = Parcel.obtain();
+            p.unmarshall(data, 0, length);
+            p.setDataPosition(0);
+            p.readInt();
+            return p;
+        }
+
+        /**
+         * Response type of a parcel returned by {@link #next}.
+         */
+        static int getResponseType(Parcel p) {
+            int position = p.dataPosition();
+            p.setDataPosition(0);
+            int type = p.readInt();
+            p.setDataPosition(position);
+            return type;
+        }
+
+        /**
+         * Reception time of the last parcel returned by {@link #next}, in
+         * elapsed realtime nanoseconds.
+         */
+        long getTimestamp() {
+            return mTimestamp;
+        }
+
+        public void close() throws IOException {
+            mIn.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+/**
+ * Send times of the in-flight RIL requests, keyed by serial.
+ *
+ * This is a latency index only. The request objects stay in the base class
+ * list, which RIL needs for its own error paths and which still does the
+ * lookup of every response; keeping this table in step costs one extra
+ * insert and remove per request. Open addressing with linear probing over parallel arrays, so insert
+ * and remove are O(1) and serials are never boxed. Removal shifts the
+ * following entries back instead of leaving tombstones, which keeps probe
+ * sequences short however many requests come and go.
+ */
+final class PendingRequestTable {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private int[] mSerials;
+    private long[] mSendTimes;
+    private boolean[] mUsed;
+    private int mSize;
+
+    PendingRequestTable() {
+        mSerials = new int[INITIAL_CAPACITY];
+        mSendTimes = new long[INITIAL_CAPACITY];
+        mUsed = new boolean[INITIAL_CAPACITY];
+    }
+
+    /**
+     * @param sendTime elapsed realtime of the send, in nanoseconds
+     */
+    synchronized void put(int serial, long sendTime) {
+        if ((mSize + 1) * 2 > mUsed.length) {
+            resize(mUsed.length * 2);
+        }
+        int mask = mUsed.length - 1;
+        int i = slot(serial, mask);
+        while (mUsed[i]) {
+            if (mSerials[i] == serial) {
+                mSendTimes[i] = sendTime;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        mSerials[i] = serial;
+        mSendTimes[i] = sendTime;
+        mUsed[i] = true;
+        mSize++;
+    }
+
+    /**
+     * @return the send time of the request, or -1 if it was not pending
+     */
+    synchronized long remove(int serial) {
+        int i = indexOf(serial);
+        if (i < 0) {
+            return -1;
+        }
+        long sendTime = mSendTimes[i];
+        int mask = mUsed.length - 1;
+        // Move back every following entry of the cluster that would otherwise
+        // become unreachable from its home slot
+        int hole = i;
+        int j = (i + 1) & mask;
+        while (mUsed[j]) {
+            int home = slot(mSerials[j], mask);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                mSerials[hole] = mSerials[j];
+                mSendTimes[hole] = mSendTimes[j];
+                hole = j;
+            }
+            j = (j + 1) & mask;
+        }
+        mUsed[hole] = false;
+        mSize--;
+        return sendTime;
+    }
+
+    synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Number of pending requests sent before the given time.
+     */
+    synchronized int countSentBefore(long time) {
+        int count = 0;
+        for (int i = 0; i < mUsed.length; i++) {
+            if (mUsed[i] && mSendTimes[i] < time) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of requests that were pending
+     */
+    synchronized int clear() {
+        for (int i = 0; i < mUsed.length; i++) {
+            mUsed[i] = false;
+        }
+        int size = mSize;
+        mSize = 0;
+        return size;
+    }
+
+    private int indexOf(int serial) {
+        int mask = mUsed.length - 1;
+        int i = slot(serial, mask);
+        while (mUsed[i]) {
+            if (mSerials[i] == serial) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        int[] serials = mSerials;
+        long[] sendTimes = mSendTimes;
+        boolean[] used = mUsed;
+        mSerials = new int[capacity];
+        mSendTimes = new long[capacity];
+        mUsed = new boolean[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                int j = slot(serials[i], mask);
+                while (mUsed[j]) {
+                    j = (j + 1) & mask;
+                }
+                mSerials[j] = serials[i];
+                mSendTimes[j] = sendTimes[i];
+                mUsed[j] = true;
+            }
+        }
+    }
+
+    /* Serials are sequential, spread them so neighbours do not share clusters */
+    private static int slot(int serial, int mask) {
+        int h = serial * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.PrintWriter;
+
+/**
+ * Round-trip latency histograms of RIL requests, one per request id.
+ *
+ * Standard ids and the Samsung range each map to a slot of preallocated
+ * arrays, so recording a response is an index computation and a few array
+ * updates. Histogram buckets are powers of two in milliseconds: bucket 0 is
+ * below 1ms, bucket n covers [2^(n-1), 2^n) ms and the last bucket takes
+ * everything slower. Responses slower than the timeout are also counted as
+ * timeouts, as are requests dropped while still pending.
+ */
+final class RequestLatencyStats {
+
+    private static final int BUCKETS = 18; /* up to ~2min */
+
+    private static final int STANDARD_SLOTS = 256;
+    private static final int SAMSUNG_SLOTS = 64;
+    /* Ids outside both ranges share the last slot */
+    private static final int OTHER_SLOT = STANDARD_SLOTS + SAMSUNG_SLOTS;
+    private static final int SLOTS = OTHER_SLOT + 1;
+
+    /* RIL_Errno values counted individually, anything above shares the last one */
+    private static final int MAX_ERROR = 127;
+
+    private final int mSamsungBase;
+    private final long mTimeoutNs;
+
+    private final long[] mCount = new long[SLOTS];
+    private final long[] mErrors = new long[SLOTS];
+    private final long[] mTimeouts = new long[SLOTS];
+    private final long[] mTotalNs = new long[SLOTS];
+    private final long[] mMaxNs = new long[SLOTS];
+    private final long[] mHistogram = new long[SLOTS * BUCKETS];
+    private final long[] mErrorCodes = new long[MAX_ERROR + 1];
+    private long mUnmatched;
+    private long mDropped;
+
+    RequestLatencyStats(int samsungBase, long timeoutMs) {
+        mSamsungBase = samsungBase;
+        mTimeoutNs = timeoutMs * 1000000L;
+    }
+
+    long getTimeoutNs() {
+        return mTimeoutNs;
+    }
+
+    /**
+     * Account for the response to a request of the given id, received nanos
+     * after it was sent, with the given RIL_Errno.
+     */
+    synchronized void record(int request, long nanos, int error) {
+        int slot = slot(request);
+        mCount[slot]++;
+        if (error != 0) {
+            mErrors[slot]++;
+            mErrorCodes[error < 0 || error > MAX_ERROR ? MAX_ERROR : error]++;
+        }
+        if (nanos > mTimeoutNs) {
+            mTimeouts[slot]++;
+        }
+        mTotalNs[slot] += nanos;
+        if (nanos > mMaxNs[slot]) {
+            mMaxNs[slot] = nanos;
+        }
+        long millis = nanos / 1000000;
+        int bucket = millis == 0 ? 0 : 64 - Long.numberOfLeadingZeros(millis);
+        mHistogram[slot * BUCKETS + Math.min(bucket, BUCKETS - 1)]++;
+    }
+
+    /**
+     * Account for a response whose serial matched no pending request.
+     */
+    synchronized void recordUnmatched() {
+        mUnmatched++;
+    }
+
+    /**
+     * Account for pending requests that will never get a response.
+     */
+    synchronized void recordDropped(int requests) {
+        mDropped += requests;
+    }
+
+    private int slot(int request) {
+        if (request >= 0 && request < STANDARD_SLOTS) {
+            return request;
+        }
+        int index = request - mSamsungBase;
+        if (index >= 0 && index < SAMSUNG_SLOTS) {
+            return STANDARD_SLOTS + index;
+        }
+        return OTHER_SLOT;
+    }
+
+    private int request(int slot) {
+        return slot < STANDARD_SLOTS ? slot : mSamsungBase + slot - STANDARD_SLOTS;
+    }
+
+    /**
+     * Print the statistics of every request id seen so far.
+     *
+     * @param stuck pending requests sent longer than the timeout ago
+     */
+    synchronized void dump(PrintWriter pw, int stuck) {
+        pw.println("Request latency: timeout=" + (mTimeoutNs / 1000000) + "ms"
+                + " unmatched=" + mUnmatched + " dropped=" + mDropped + " stuck=" + stuck);
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long count = mCount[slot];
+            if (count == 0) {
+                continue;
+            }
+            String name = slot == OTHER_SLOT ? "other"
+                    : SamsungExynos4RIL.requestToString(request(slot)) + "(" + request(slot) + ")";
+            pw.println("  " + name + ": count=" + count + " errors=" + mErrors[slot]
+                    + " timeouts=" + mTimeouts[slot]
+                    + " avg=" + (mTotalNs[slot] / count / 1000) + "us"
+                    + " max=" + (mMaxNs[slot] / 1000) + "us");
+            pw.print("   ");
+            for (int i = 0; i < BUCKETS; i++) {
+                long n = mHistogram[slot * BUCKETS + i];
+                if (n == 0) {
+                    continue;
+                }
+                String label = i == BUCKETS - 1 ? ">=" + (1L << (i - 1)) : "<" + (1L << i);
+                pw.print(" " + label + "ms:" + n);
+            }
+            pw.println();
+        }
+        boolean errors = false;
+        for (int i = 1; i <= MAX_ERROR; i++) {
+            if (mErrorCodes[i] == 0) {
+                continue;
+            }
+            if (!errors) {
+                pw.print("  error codes:");
+                errors = true;
+            }
+            pw.print(" " + (i == MAX_ERROR ? "other" : String.valueOf(i)) + ":" + mErrorCodes[i]);
+        }
+        if (errors) {
+            pw.println();
+        }
+    }
+}
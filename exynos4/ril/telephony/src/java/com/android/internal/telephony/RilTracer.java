@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.SystemClock;
+import android.os.SystemProperties;
+
+import java.io.PrintWriter;
+
+/**
+ * Binary event tracer for the RIL receive path.
+ *
+ * Events are a type and four numeric arguments, stored in a preallocated
+ * ring of longs; recording one does no formatting and no allocation. They
+ * are turned into text only by {@link #dump}. The level comes from the
+ * persist.ril.trace property and is picked up at runtime; at
+ * {@link #LEVEL_OFF} a call to {@link #isEnabled} is all that is left on
+ * the hot path.
+ */
+final class RilTracer {
+
+    static final String LEVEL_PROPERTY = "persist.ril.trace";
+
+    static final int LEVEL_OFF = 0;
+    /* One event per call list */
+    static final int LEVEL_SUMMARY = 1;
+    /* Every call and its UUS data too */
+    static final int LEVEL_VERBOSE = 2;
+
+    /* Parcel size, position, available bytes, number of calls */
+    static final int EVENT_CALL_LIST = 1;
+    /* Packed state/index/flags, TOA, als/number presentation, name presentation/UUS */
+    static final int EVENT_CALL = 2;
+    /* UUS type, DCS, data length */
+    static final int EVENT_UUS = 3;
+    /* Call index, voice privacy on */
+    static final int EVENT_VOICE_PRIVACY = 4;
+
+    static final int CALL_FLAG_MPTY = 1 << 0;
+    static final int CALL_FLAG_MT = 1 << 1;
+    static final int CALL_FLAG_VOICE = 1 << 2;
+    static final int CALL_FLAG_VIDEO = 1 << 3;
+    static final int CALL_FLAG_VOICE_PRIVACY = 1 << 4;
+
+    private static final int EVENT_WORDS = 6;
+    private static final int DEFAULT_CAPACITY = 512;
+
+    private final long[] mEvents;
+    private final int mCapacity;
+    /* Events recorded so far, the next one goes to mCount % mCapacity */
+    private long mCount;
+
+    private volatile int mLevel;
+
+    RilTracer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    RilTracer(int capacity) {
+        mCapacity = capacity;
+        mEvents = new long[capacity * EVENT_WORDS];
+        updateLevel();
+        SystemProperties.addChangeCallback(new Runnable() {
+            public void run() {
+                updateLevel();
+            }
+        });
+    }
+
+    private void updateLevel() {
+        mLevel = SystemProperties.getInt(LEVEL_PROPERTY, LEVEL_OFF);
+    }
+
+    boolean isEnabled(int level) {
+        return mLevel >= level;
+    }
+
+    void setLevel(int level) {
+        mLevel = level;
+    }
+
+    synchronized void record(int type, long a, long b, long c, long d) {
+        int i = (int) (mCount++ % mCapacity) * EVENT_WORDS;
+        mEvents[i] = SystemClock.elapsedRealtimeNanos();
+        mEvents[i + 1] = type;
+        mEvents[i + 2] = a;
+        mEvents[i + 3] = b;
+        mEvents[i + 4] = c;
+        mEvents[i + 5] = d;
+    }
+
+    synchronized void clear() {
+        mCount = 0;
+    }
+
+    /**
+     * Print the recorded events, oldest first.
+     */
+    synchronized void dump(PrintWriter pw) {
+        long first = Math.max(0, mCount - mCapacity);
+        pw.println("RIL trace: level=" + mLevel + " events=" + mCount
+                + " (showing " + (mCount - first) + ")");
+        for (long n = first; n < mCount; n++) {
+            int i = (int) (n % mCapacity) * EVENT_WORDS;
+            pw.print("  ");
+            pw.print(mEvents[i] / 1000000);
+            pw.print(" ");
+            pw.println(format((int) mEvents[i + 1],
+                    mEvents[i + 2], mEvents[i + 3], mEvents[i + 4], mEvents[i + 5]));
+        }
+    }
+
+    private static String format(int type, long a, long b, long c, long d) {
+        switch (type) {
+            case EVENT_CALL_LIST:
+                return "CALL_LIST size=" + a + " pos=" + b + " dataAvail=" + c + " num=" + d;
+            case EVENT_CALL: {
+                int flags = (int) (a >> 16);
+                return "CALL state=" + DriverCall.State.values()[(int) (a & 0xff)]
+                        + " index=" + ((a >> 8) & 0xff)
+                        + " TOA=" + b
+                        + " isMpty=" + ((flags & CALL_FLAG_MPTY) != 0)
+                        + " isMT=" + ((flags & CALL_FLAG_MT) != 0)
+                        + " als=" + (c & 0xffff)
+                        + " isVoice=" + ((flags & CALL_FLAG_VOICE) != 0)
+                        + " isVideo=" + ((flags & CALL_FLAG_VIDEO) != 0)
+                        + " isVoicePrivacy=" + ((flags & CALL_FLAG_VOICE_PRIVACY) != 0)
+                        + " np=" + (c >> 16)
+                        + " namePresentation=" + (d & 0xffff)
+                        + " uusInfoPresent=" + (d >> 16);
+            }
+            case EVENT_UUS:
+                return "UUS type=" + a + " dcs=" + b + " length=" + c;
+            case EVENT_VOICE_PRIVACY:
+                return "VOICE_PRIVACY index=" + a + " enabled=" + (b != 0);
+            default:
+                return "type=" + type + " " + a + " " + b + " " + c + " " + d;
+        }
+    }
+}
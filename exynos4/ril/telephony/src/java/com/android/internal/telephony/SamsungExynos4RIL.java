@@ -44,6 +44,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.Parcel;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.PowerManager.WakeLock;
 import android.telephony.NeighboringCellInfo;
@@ -61,9 +62,10 @@ import com.android.internal.telephony.cdma.CdmaInformationRecords;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.Runtime;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -122,6 +124,9 @@ public class SamsungExynos4RIL extends RIL implements CommandsInterface {
     static final int RIL_REQUEST_GET_PREFERRED_NETWORK_LIST = 10051;
     static final int RIL_REQUEST_HANGUP_VT = 10052;
 
+    static final int SAMSUNG_REQUEST_BASE = 10000;
+    static final int SAMSUNG_UNSOL_BASE = 11000;
+
     static final int RIL_UNSOL_RELEASE_COMPLETE_MESSAGE = 11001;
     static final int RIL_UNSOL_STK_SEND_SMS_RESULT = 11002;
     static final int RIL_UNSOL_STK_CALL_CONTROL_RESULT = 11003;
@@ -154,17 +159,398 @@ public class SamsungExynos4RIL extends RIL implements CommandsInterface {
     static final int RIL_UNSOL_UTS_GET_UNREAD_SMS_STATUS = 11031;
     static final int RIL_UNSOL_MIP_CONNECT_STATUS = 11032;
 
+    /**
+     * Decodes the payload of one type of response. Decoders are stateless and
+     * shared by all instances.
+     */
+    interface ResponseDecoder {
+        Object decode(SamsungExynos4RIL ril, Parcel p);
+    }
+
+    /**
+     * Response decoders indexed by id. Standard ids and the Samsung range
+     * each have a dense array, so a lookup is a bounds check and a load.
+     */
+    static final class DecoderRegistry {
+        private final int mStandardBase;
+        private final int mSamsungBase;
+        private volatile ResponseDecoder[] mStandard = new ResponseDecoder[0];
+        private volatile ResponseDecoder[] mSamsung = new ResponseDecoder[0];
+
+        DecoderRegistry(int standardBase, int samsungBase) {
+            mStandardBase = standardBase;
+            mSamsungBase = samsungBase;
+        }
+
+        /* Copy on write: lookups never lock and never see a half-updated array */
+        synchronized void register(int id, ResponseDecoder decoder) {
+            if (id < mStandardBase) {
+                throw new IllegalArgumentException("Invalid response id " + id);
+            }
+            if (id < mSamsungBase) {
+                mStandard = with(mStandard, id - mStandardBase, decoder);
+            } else {
+                mSamsung = with(mSamsung, id - mSamsungBase, decoder);
+            }
+        }
+
+        ResponseDecoder get(int id) {
+            ResponseDecoder[] decoders = mStandard;
+            int index = id - mStandardBase;
+            if (index >= 0 && index < decoders.length) {
+                return decoders[index];
+            }
+            decoders = mSamsung;
+            index = id - mSamsungBase;
+            if (index >= 0 && index < decoders.length) {
+                return decoders[index];
+            }
+            return null;
+        }
+
+        private static ResponseDecoder[] with(ResponseDecoder[] decoders, int index,
+                ResponseDecoder decoder) {
+            ResponseDecoder[] copy = new ResponseDecoder[Math.max(decoders.length, index + 1)];
+            System.arraycopy(decoders, 0, copy, 0, decoders.length);
+            copy[index] = decoder;
+            return copy;
+        }
+    }
+
+    private static final ResponseDecoder VOID = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseVoid(p); }
+    };
+    private static final ResponseDecoder ICC_CARD_STATUS = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseIccCardStatus(p); }
+    };
+    private static final ResponseDecoder INTS = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseInts(p); }
+    };
+    private static final ResponseDecoder CALL_LIST = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseCallList(p); }
+    };
+    private static final ResponseDecoder STRING = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseString(p); }
+    };
+    private static final ResponseDecoder SIGNAL_STRENGTH = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseSignalStrength(p); }
+    };
+    private static final ResponseDecoder STRINGS = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseStrings(p); }
+    };
+    private static final ResponseDecoder SMS = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseSMS(p); }
+    };
+    private static final ResponseDecoder SETUP_DATA_CALL = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseSetupDataCall(p); }
+    };
+    private static final ResponseDecoder ICC_IO = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseICC_IO(p); }
+    };
+    private static final ResponseDecoder CALL_FORWARD = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseCallForward(p); }
+    };
+    private static final ResponseDecoder OPERATOR_INFOS = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseOperatorInfos(p); }
+    };
+    private static final ResponseDecoder DATA_CALL_LIST = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseDataCallList(p); }
+    };
+    private static final ResponseDecoder RAW = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseRaw(p); }
+    };
+    private static final ResponseDecoder GET_PREFERRED_NETWORK_TYPE = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseGetPreferredNetworkType(p); }
+    };
+    private static final ResponseDecoder CELL_LIST = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseCellList(p); }
+    };
+    private static final ResponseDecoder GMS_BROADCAST_CONFIG = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseGmsBroadcastConfig(p); }
+    };
+    private static final ResponseDecoder CDMA_BROADCAST_CONFIG = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseCdmaBroadcastConfig(p); }
+    };
+    private static final ResponseDecoder GET_DATA_CALL_PROFILE = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseGetDataCallProfile(p); }
+    };
+    private static final ResponseDecoder CELL_INFO_LIST = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseCellInfoList(p); }
+    };
+    private static final ResponseDecoder HARDWARE_CONFIG = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseHardwareConfig(p); }
+    };
+    private static final ResponseDecoder ICC_IO_BASE64 = new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) { return ril.responseICC_IOBase64(p); }
+    };
+
+    private static final ResponseDecoder HANGUP_FOREGROUND_RESUME_BACKGROUND =
+            new ResponseDecoder() {
+        public Object decode(SamsungExynos4RIL ril, Parcel p) {
+            if (ril.mTestingEmergencyCall.getAndSet(false)) {
+                if (ril.mEmergencyCallbackModeRegistrant != null) {
+                    ril.riljLog("testing emergency call, notify ECM Registrants");
+                    ril.mEmergencyCallbackModeRegistrant.notifyRegistrant();
+                }
+            }
+            return ril.responseVoid(p);
+        }
+    };
+
+    private static final DecoderRegistry sSolicitedDecoders =
+            new DecoderRegistry(0, SAMSUNG_REQUEST_BASE);
+    private static final DecoderRegistry sUnsolicitedDecoders =
+            new DecoderRegistry(RIL_UNSOL_RESPONSE_BASE, SAMSUNG_UNSOL_BASE);
+
+    static {
+        // We want to take care of this
+        sSolicitedDecoders.register(RIL_REQUEST_DIAL_EMERGENCY, VOID);
+
+        // Everything below comes from super class
+        sSolicitedDecoders.register(RIL_REQUEST_GET_SIM_STATUS, ICC_CARD_STATUS);
+        sSolicitedDecoders.register(RIL_REQUEST_ENTER_SIM_PIN, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_ENTER_SIM_PUK, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_ENTER_SIM_PIN2, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_ENTER_SIM_PUK2, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_CHANGE_SIM_PIN, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_CHANGE_SIM_PIN2, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_ENTER_DEPERSONALIZATION_CODE, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_GET_CURRENT_CALLS, CALL_LIST);
+        sSolicitedDecoders.register(RIL_REQUEST_DIAL, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_GET_IMSI, STRING);
+        sSolicitedDecoders.register(RIL_REQUEST_HANGUP, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_HANGUP_WAITING_OR_BACKGROUND, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_HANGUP_FOREGROUND_RESUME_BACKGROUND,
+                HANGUP_FOREGROUND_RESUME_BACKGROUND);
+        sSolicitedDecoders.register(RIL_REQUEST_SWITCH_WAITING_OR_HOLDING_AND_ACTIVE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_CONFERENCE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_UDUB, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_LAST_CALL_FAIL_CAUSE, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_SIGNAL_STRENGTH, SIGNAL_STRENGTH);
+        sSolicitedDecoders.register(RIL_REQUEST_VOICE_REGISTRATION_STATE, STRINGS);
+        sSolicitedDecoders.register(RIL_REQUEST_DATA_REGISTRATION_STATE, STRINGS);
+        sSolicitedDecoders.register(RIL_REQUEST_OPERATOR, STRINGS);
+        sSolicitedDecoders.register(RIL_REQUEST_RADIO_POWER, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_DTMF, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_SEND_SMS, SMS);
+        sSolicitedDecoders.register(RIL_REQUEST_SEND_SMS_EXPECT_MORE, SMS);
+        sSolicitedDecoders.register(RIL_REQUEST_SETUP_DATA_CALL, SETUP_DATA_CALL);
+        sSolicitedDecoders.register(RIL_REQUEST_SIM_IO, ICC_IO);
+        sSolicitedDecoders.register(RIL_REQUEST_SEND_USSD, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_CANCEL_USSD, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_GET_CLIR, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_CLIR, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_QUERY_CALL_FORWARD_STATUS, CALL_FORWARD);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_CALL_FORWARD, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_QUERY_CALL_WAITING, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_CALL_WAITING, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_SMS_ACKNOWLEDGE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_GET_IMEI, STRING);
+        sSolicitedDecoders.register(RIL_REQUEST_GET_IMEISV, STRING);
+        sSolicitedDecoders.register(RIL_REQUEST_ANSWER, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_DEACTIVATE_DATA_CALL, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_QUERY_FACILITY_LOCK, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_FACILITY_LOCK, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_CHANGE_BARRING_PASSWORD, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_NETWORK_SELECTION_AUTOMATIC, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_NETWORK_SELECTION_MANUAL, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_QUERY_AVAILABLE_NETWORKS, OPERATOR_INFOS);
+        sSolicitedDecoders.register(RIL_REQUEST_DTMF_START, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_DTMF_STOP, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_BASEBAND_VERSION, STRING);
+        sSolicitedDecoders.register(RIL_REQUEST_SEPARATE_CONNECTION, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_MUTE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_GET_MUTE, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_QUERY_CLIP, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_LAST_DATA_CALL_FAIL_CAUSE, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_DATA_CALL_LIST, DATA_CALL_LIST);
+        sSolicitedDecoders.register(RIL_REQUEST_RESET_RADIO, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_OEM_HOOK_RAW, RAW);
+        sSolicitedDecoders.register(RIL_REQUEST_OEM_HOOK_STRINGS, STRINGS);
+        sSolicitedDecoders.register(RIL_REQUEST_SCREEN_STATE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_SUPP_SVC_NOTIFICATION, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_WRITE_SMS_TO_SIM, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_DELETE_SMS_ON_SIM, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_BAND_MODE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_QUERY_AVAILABLE_BAND_MODE, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_STK_GET_PROFILE, STRING);
+        sSolicitedDecoders.register(RIL_REQUEST_STK_SET_PROFILE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_STK_SEND_ENVELOPE_COMMAND, STRING);
+        sSolicitedDecoders.register(RIL_REQUEST_STK_SEND_TERMINAL_RESPONSE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_STK_HANDLE_CALL_SETUP_REQUESTED_FROM_SIM, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_EXPLICIT_CALL_TRANSFER, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_PREFERRED_NETWORK_TYPE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE, GET_PREFERRED_NETWORK_TYPE);
+        sSolicitedDecoders.register(RIL_REQUEST_GET_NEIGHBORING_CELL_IDS, CELL_LIST);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_LOCATION_UPDATES, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_SET_SUBSCRIPTION_SOURCE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_SET_ROAMING_PREFERENCE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_QUERY_ROAMING_PREFERENCE, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_TTY_MODE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_QUERY_TTY_MODE, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_SET_PREFERRED_VOICE_PRIVACY_MODE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_QUERY_PREFERRED_VOICE_PRIVACY_MODE, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_FLASH, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_BURST_DTMF, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_SEND_SMS, SMS);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_SMS_ACKNOWLEDGE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_GSM_GET_BROADCAST_CONFIG, GMS_BROADCAST_CONFIG);
+        sSolicitedDecoders.register(RIL_REQUEST_GSM_SET_BROADCAST_CONFIG, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_GSM_BROADCAST_ACTIVATION, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_GET_BROADCAST_CONFIG, CDMA_BROADCAST_CONFIG);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_SET_BROADCAST_CONFIG, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_BROADCAST_ACTIVATION, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_VALIDATE_AND_WRITE_AKEY, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_SUBSCRIPTION, STRINGS);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_DEVICE_IDENTITY, STRINGS);
+        sSolicitedDecoders.register(RIL_REQUEST_GET_SMSC_ADDRESS, STRING);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_SMSC_ADDRESS, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_EXIT_EMERGENCY_CALLBACK_MODE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_REPORT_SMS_MEMORY_STATUS, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_REPORT_STK_SERVICE_IS_RUNNING, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_CDMA_GET_SUBSCRIPTION_SOURCE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_GET_DATA_CALL_PROFILE, GET_DATA_CALL_PROFILE);
+        sSolicitedDecoders.register(RIL_REQUEST_ISIM_AUTHENTICATION, STRING);
+        sSolicitedDecoders.register(RIL_REQUEST_ACKNOWLEDGE_INCOMING_GSM_SMS_WITH_PDU, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_STK_SEND_ENVELOPE_WITH_STATUS, ICC_IO);
+        sSolicitedDecoders.register(RIL_REQUEST_VOICE_RADIO_TECH, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_GET_CELL_INFO_LIST, CELL_INFO_LIST);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_UNSOL_CELL_INFO_LIST_RATE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_INITIAL_ATTACH_APN, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_DATA_PROFILE, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_IMS_REGISTRATION_STATE, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_IMS_SEND_SMS, SMS);
+        sSolicitedDecoders.register(RIL_REQUEST_SIM_TRANSMIT_APDU_BASIC, ICC_IO);
+        sSolicitedDecoders.register(RIL_REQUEST_SIM_OPEN_CHANNEL, INTS);
+        sSolicitedDecoders.register(RIL_REQUEST_SIM_CLOSE_CHANNEL, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_SIM_TRANSMIT_APDU_CHANNEL, ICC_IO);
+        sSolicitedDecoders.register(RIL_REQUEST_SIM_GET_ATR, STRING);
+        sSolicitedDecoders.register(RIL_REQUEST_NV_READ_ITEM, STRING);
+        sSolicitedDecoders.register(RIL_REQUEST_NV_WRITE_ITEM, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_NV_WRITE_CDMA_PRL, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_NV_RESET_CONFIG, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_SET_UICC_SUBSCRIPTION, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_ALLOW_DATA, VOID);
+        sSolicitedDecoders.register(RIL_REQUEST_GET_HARDWARE_CONFIG, HARDWARE_CONFIG);
+        sSolicitedDecoders.register(RIL_REQUEST_SIM_AUTHENTICATION, ICC_IO_BASE64);
+        sSolicitedDecoders.register(RIL_REQUEST_SHUTDOWN, VOID);
+
+        sUnsolicitedDecoders.register(RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED, VOID);
+        sUnsolicitedDecoders.register(RIL_UNSOL_RESPONSE_NEW_BROADCAST_SMS, STRING);
+        sUnsolicitedDecoders.register(RIL_UNSOL_RIL_CONNECTED, INTS);
+        // SAMSUNG STATES
+        sUnsolicitedDecoders.register(RIL_UNSOL_AM, STRING);
+        sUnsolicitedDecoders.register(RIL_UNSOL_DUN_PIN_CONTROL_SIGNAL, VOID);
+        sUnsolicitedDecoders.register(RIL_UNSOL_DATA_SUSPEND_RESUME, INTS);
+        sUnsolicitedDecoders.register(RIL_UNSOL_STK_CALL_CONTROL_RESULT, VOID);
+        sUnsolicitedDecoders.register(RIL_UNSOL_TWO_MIC_STATE, INTS);
+        sUnsolicitedDecoders.register(RIL_UNSOL_WB_AMR_STATE, INTS);
+    }
+
+    /**
+     * Decode solicited responses with the given id through decoder, replacing
+     * any decoder registered for it. Meant for Samsung request ids whose
+     * response format becomes known.
+     */
+    static void registerSolicitedDecoder(int request, ResponseDecoder decoder) {
+        sSolicitedDecoders.register(request, decoder);
+    }
+
+    /**
+     * Decode unsolicited responses with the given id through decoder. Ids
+     * handled here are no longer forwarded to the super class.
+     */
+    static void registerUnsolicitedDecoder(int response, ResponseDecoder decoder) {
+        sUnsolicitedDecoders.register(response, decoder);
+    }
+
+    private static final int AUDIO_PARAM_WB_AMR = 0;
+    private static final int AUDIO_PARAM_TWO_MIC = 1;
+    /* Audio parameter driven by RIL_UNSOL_TWO_MIC_STATE, empty to ignore the event */
+    private static final String TWO_MIC_PARAMETER =
+            SystemProperties.get("ro.ril.two_mic_param", "");
+
     protected HandlerThread mSamsungExynos4RILThread;
-    private AudioManager audioManager;
+    /*
+     * Send times of the requests sent through this instance and not answered
+     * yet, for the latency statistics. It is an index next to the base class
+     * list, not a replacement: responses are still matched through that list.
+     * Entries of requests failed when the socket closes stay until rild
+     * reconnects. The base class starts its threads before this is assigned,
+     * so readers must cope with null.
+     */
+    private volatile PendingRequestTable mPendingRequests = new PendingRequestTable();
+    /* Null while the base constructor runs, like mPendingRequests */
+    private volatile RequestLatencyStats mLatencyStats = new RequestLatencyStats(
+            SAMSUNG_REQUEST_BASE, SystemProperties.getLong("ro.ril.request_timeout_ms", 30000));
+    /* Null while the base constructor runs, like mPendingRequests */
+    private volatile RilTracer mTracer = new RilTracer();
+    /*
+     * Only touched on the receive thread, except for getCallListChanges().
+     * Null while the base constructor runs, like mPendingRequests.
+     */
+    private volatile CallStateTracker mCallStateTracker = new CallStateTracker();
+    /* Set when call lists are decoded into reused objects, see CallListPool */
+    private final CallListPool mCallListPool =
+            SystemProperties.getBoolean("ro.ril.pooled_call_list", false)
+                    ? new CallListPool() : null;
+    /* Runs RIL_UNSOL_AM commands off the receive thread, see getAmDispatcher() */
+    private AmCommandDispatcher mAmDispatcher;
+    /*
+     * Set when persist.ril.record_parcels names a file on a debuggable build,
+     * see ParcelRecorder. Null while the base constructor runs.
+     */
+    private volatile ParcelRecorder mRecorder = createRecorder();
+    /*
+     * Pushes wb_amr and two-mic changes to the audio HAL off the receive
+     * thread, see getAudioParameters()
+     */
+    private AudioParameterDispatcher mAudioParameters;
     private boolean mIsGBModem = SystemProperties.getBoolean("ro.ril.gbmodem", false);
 
     public SamsungExynos4RIL(Context context, int preferredNetworkType,
             int cdmaSubscription, Integer instanceId) {
         super(context, preferredNetworkType, cdmaSubscription, instanceId);
-        audioManager = (AudioManager)mContext.getSystemService(Context.AUDIO_SERVICE);
         mQANElements = 5;
     }
 
+    private static ParcelRecorder createRecorder() {
+        String path = SystemProperties.get(ParcelRecorder.PATH_PROPERTY, "");
+        return path.isEmpty() ? null : ParcelRecorder.create(path);
+    }
+
+    /*
+     * Created on first use: the base constructor starts the receive thread
+     * before field initializers run, and rild may send RIL_UNSOL_AM as soon
+     * as it is connected.
+     */
+    private synchronized AmCommandDispatcher getAmDispatcher() {
+        if (mAmDispatcher == null) {
+            mAmDispatcher = new AmCommandDispatcher(mContext);
+        }
+        return mAmDispatcher;
+    }
+
+    /* Created on first use, for the same reason as getAmDispatcher() */
+    private synchronized AudioParameterDispatcher getAudioParameters() {
+        if (mAudioParameters == null) {
+            AudioManager audioManager =
+                    (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
+            mAudioParameters = new AudioParameterDispatcher(audioManager,
+                    "wb_amr", TWO_MIC_PARAMETER);
+        }
+        return mAudioParameters;
+    }
+
+    private synchronized void resetAudioParameters() {
+        if (mAudioParameters != null) {
+            mAudioParameters.reset();
+        }
+    }
+
     static String
     requestToString(int request) {
         switch (request) {
@@ -178,14 +564,24 @@ public class SamsungExynos4RIL extends RIL implements CommandsInterface {
         int serial, error;
         boolean found = false;
 
+        ParcelRecorder recorder = mRecorder;
+        if (recorder != null) recorder.record(p);
+
         serial = p.readInt();
         error = p.readInt();
 
-        RILRequest rr;
-
-        rr = findAndRemoveRequestFromList(serial);
+        PendingRequestTable pending = mPendingRequests;
+        RequestLatencyStats stats = mLatencyStats;
+        long sendTime = pending != null ? pending.remove(serial) : -1;
+        RILRequest rr = super.findAndRemoveRequestFromList(serial);
+        if (rr != null && sendTime >= 0 && stats != null) {
+            stats.record(rr.mRequest, SystemClock.elapsedRealtimeNanos() - sendTime, error);
+        }
 
         if (rr == null) {
+            if (stats != null) {
+                stats.recordUnmatched();
+            }
             Rlog.w(RILJ_LOG_TAG, "Unexpected solicited response! sn: "
                             + serial + " error: " + error);
             return null;
@@ -195,159 +591,13 @@ public class SamsungExynos4RIL extends RIL implements CommandsInterface {
 
         if (error == 0 || p.dataAvail() > 0) {
             // either command succeeds or command fails but with data payload
-            try {switch (rr.mRequest) {
-            /*
- cat libs/telephony/ril_commands.h \
- | egrep "^ *{RIL_" \
- | sed -re 's/\{([^,]+),[^,]+,([^}]+).+/case \1: ret = \2(p); break;/'
-             */
-
-            // We want to take care of this
-            case RIL_REQUEST_DIAL_EMERGENCY: ret = responseVoid(p); break;
-
-            // Everything below comes from super class
-            case RIL_REQUEST_GET_SIM_STATUS: ret =  responseIccCardStatus(p); break;
-            case RIL_REQUEST_ENTER_SIM_PIN: ret =  responseInts(p); break;
-            case RIL_REQUEST_ENTER_SIM_PUK: ret =  responseInts(p); break;
-            case RIL_REQUEST_ENTER_SIM_PIN2: ret =  responseInts(p); break;
-            case RIL_REQUEST_ENTER_SIM_PUK2: ret =  responseInts(p); break;
-            case RIL_REQUEST_CHANGE_SIM_PIN: ret =  responseInts(p); break;
-            case RIL_REQUEST_CHANGE_SIM_PIN2: ret =  responseInts(p); break;
-            case RIL_REQUEST_ENTER_DEPERSONALIZATION_CODE: ret =  responseInts(p); break;
-            case RIL_REQUEST_GET_CURRENT_CALLS: ret =  responseCallList(p); break;
-            case RIL_REQUEST_DIAL: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_IMSI: ret =  responseString(p); break;
-            case RIL_REQUEST_HANGUP: ret =  responseVoid(p); break;
-            case RIL_REQUEST_HANGUP_WAITING_OR_BACKGROUND: ret =  responseVoid(p); break;
-            case RIL_REQUEST_HANGUP_FOREGROUND_RESUME_BACKGROUND: {
-                if (mTestingEmergencyCall.getAndSet(false)) {
-                    if (mEmergencyCallbackModeRegistrant != null) {
-                        riljLog("testing emergency call, notify ECM Registrants");
-                        mEmergencyCallbackModeRegistrant.notifyRegistrant();
-                    }
+            try {
+                ResponseDecoder decoder = sSolicitedDecoders.get(rr.mRequest);
+                if (decoder == null) {
+                    throw new RuntimeException("Unrecognized solicited response: " + rr.mRequest);
                 }
-                ret =  responseVoid(p);
-                break;
-            }
-            case RIL_REQUEST_SWITCH_WAITING_OR_HOLDING_AND_ACTIVE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CONFERENCE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_UDUB: ret =  responseVoid(p); break;
-            case RIL_REQUEST_LAST_CALL_FAIL_CAUSE: ret =  responseInts(p); break;
-            case RIL_REQUEST_SIGNAL_STRENGTH: ret =  responseSignalStrength(p); break;
-            case RIL_REQUEST_VOICE_REGISTRATION_STATE: ret =  responseStrings(p); break;
-            case RIL_REQUEST_DATA_REGISTRATION_STATE: ret =  responseStrings(p); break;
-            case RIL_REQUEST_OPERATOR: ret =  responseStrings(p); break;
-            case RIL_REQUEST_RADIO_POWER: ret =  responseVoid(p); break;
-            case RIL_REQUEST_DTMF: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SEND_SMS: ret =  responseSMS(p); break;
-            case RIL_REQUEST_SEND_SMS_EXPECT_MORE: ret =  responseSMS(p); break;
-            case RIL_REQUEST_SETUP_DATA_CALL: ret =  responseSetupDataCall(p); break;
-            case RIL_REQUEST_SIM_IO: ret =  responseICC_IO(p); break;
-            case RIL_REQUEST_SEND_USSD: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CANCEL_USSD: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_CLIR: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_CLIR: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_CALL_FORWARD_STATUS: ret =  responseCallForward(p); break;
-            case RIL_REQUEST_SET_CALL_FORWARD: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_CALL_WAITING: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_CALL_WAITING: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SMS_ACKNOWLEDGE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_IMEI: ret =  responseString(p); break;
-            case RIL_REQUEST_GET_IMEISV: ret =  responseString(p); break;
-            case RIL_REQUEST_ANSWER: ret =  responseVoid(p); break;
-            case RIL_REQUEST_DEACTIVATE_DATA_CALL: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_FACILITY_LOCK: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_FACILITY_LOCK: ret =  responseInts(p); break;
-            case RIL_REQUEST_CHANGE_BARRING_PASSWORD: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_NETWORK_SELECTION_MODE: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_NETWORK_SELECTION_AUTOMATIC: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_NETWORK_SELECTION_MANUAL: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_AVAILABLE_NETWORKS : ret =  responseOperatorInfos(p); break;
-            case RIL_REQUEST_DTMF_START: ret =  responseVoid(p); break;
-            case RIL_REQUEST_DTMF_STOP: ret =  responseVoid(p); break;
-            case RIL_REQUEST_BASEBAND_VERSION: ret =  responseString(p); break;
-            case RIL_REQUEST_SEPARATE_CONNECTION: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_MUTE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_MUTE: ret =  responseInts(p); break;
-            case RIL_REQUEST_QUERY_CLIP: ret =  responseInts(p); break;
-            case RIL_REQUEST_LAST_DATA_CALL_FAIL_CAUSE: ret =  responseInts(p); break;
-            case RIL_REQUEST_DATA_CALL_LIST: ret =  responseDataCallList(p); break;
-            case RIL_REQUEST_RESET_RADIO: ret =  responseVoid(p); break;
-            case RIL_REQUEST_OEM_HOOK_RAW: ret =  responseRaw(p); break;
-            case RIL_REQUEST_OEM_HOOK_STRINGS: ret =  responseStrings(p); break;
-            case RIL_REQUEST_SCREEN_STATE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_SUPP_SVC_NOTIFICATION: ret =  responseVoid(p); break;
-            case RIL_REQUEST_WRITE_SMS_TO_SIM: ret =  responseInts(p); break;
-            case RIL_REQUEST_DELETE_SMS_ON_SIM: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_BAND_MODE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_AVAILABLE_BAND_MODE: ret =  responseInts(p); break;
-            case RIL_REQUEST_STK_GET_PROFILE: ret =  responseString(p); break;
-            case RIL_REQUEST_STK_SET_PROFILE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_STK_SEND_ENVELOPE_COMMAND: ret =  responseString(p); break;
-            case RIL_REQUEST_STK_SEND_TERMINAL_RESPONSE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_STK_HANDLE_CALL_SETUP_REQUESTED_FROM_SIM: ret =  responseInts(p); break;
-            case RIL_REQUEST_EXPLICIT_CALL_TRANSFER: ret =  responseVoid(p); break;
-            case RIL_REQUEST_SET_PREFERRED_NETWORK_TYPE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_PREFERRED_NETWORK_TYPE: ret =  responseGetPreferredNetworkType(p); break;
-            case RIL_REQUEST_GET_NEIGHBORING_CELL_IDS: ret = responseCellList(p); break;
-            case RIL_REQUEST_SET_LOCATION_UPDATES: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_SET_SUBSCRIPTION_SOURCE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_SET_ROAMING_PREFERENCE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_QUERY_ROAMING_PREFERENCE: ret =  responseInts(p); break;
-            case RIL_REQUEST_SET_TTY_MODE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_QUERY_TTY_MODE: ret =  responseInts(p); break;
-            case RIL_REQUEST_CDMA_SET_PREFERRED_VOICE_PRIVACY_MODE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_QUERY_PREFERRED_VOICE_PRIVACY_MODE: ret =  responseInts(p); break;
-            case RIL_REQUEST_CDMA_FLASH: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_BURST_DTMF: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_SEND_SMS: ret =  responseSMS(p); break;
-            case RIL_REQUEST_CDMA_SMS_ACKNOWLEDGE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GSM_GET_BROADCAST_CONFIG: ret =  responseGmsBroadcastConfig(p); break;
-            case RIL_REQUEST_GSM_SET_BROADCAST_CONFIG: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GSM_BROADCAST_ACTIVATION: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_GET_BROADCAST_CONFIG: ret =  responseCdmaBroadcastConfig(p); break;
-            case RIL_REQUEST_CDMA_SET_BROADCAST_CONFIG: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_BROADCAST_ACTIVATION: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_VALIDATE_AND_WRITE_AKEY: ret =  responseVoid(p); break;
-            case RIL_REQUEST_CDMA_SUBSCRIPTION: ret =  responseStrings(p); break;
-            case RIL_REQUEST_CDMA_WRITE_SMS_TO_RUIM: ret =  responseInts(p); break;
-            case RIL_REQUEST_CDMA_DELETE_SMS_ON_RUIM: ret =  responseVoid(p); break;
-            case RIL_REQUEST_DEVICE_IDENTITY: ret =  responseStrings(p); break;
-            case RIL_REQUEST_GET_SMSC_ADDRESS: ret = responseString(p); break;
-            case RIL_REQUEST_SET_SMSC_ADDRESS: ret = responseVoid(p); break;
-            case RIL_REQUEST_EXIT_EMERGENCY_CALLBACK_MODE: ret = responseVoid(p); break;
-            case RIL_REQUEST_REPORT_SMS_MEMORY_STATUS: ret = responseVoid(p); break;
-            case RIL_REQUEST_REPORT_STK_SERVICE_IS_RUNNING: ret = responseVoid(p); break;
-            case RIL_REQUEST_CDMA_GET_SUBSCRIPTION_SOURCE: ret =  responseVoid(p); break;
-            case RIL_REQUEST_GET_DATA_CALL_PROFILE: ret =  responseGetDataCallProfile(p); break;
-            case RIL_REQUEST_ISIM_AUTHENTICATION: ret =  responseString(p); break;
-            case RIL_REQUEST_ACKNOWLEDGE_INCOMING_GSM_SMS_WITH_PDU: ret = responseVoid(p); break;
-            case RIL_REQUEST_STK_SEND_ENVELOPE_WITH_STATUS: ret = responseICC_IO(p); break;
-            case RIL_REQUEST_VOICE_RADIO_TECH: ret = responseInts(p); break;
-            case RIL_REQUEST_GET_CELL_INFO_LIST: ret = responseCellInfoList(p); break;
-            case RIL_REQUEST_SET_UNSOL_CELL_INFO_LIST_RATE: ret = responseVoid(p); break;
-            case RIL_REQUEST_SET_INITIAL_ATTACH_APN: ret = responseVoid(p); break;
-            case RIL_REQUEST_SET_DATA_PROFILE: ret = responseVoid(p); break;
-            case RIL_REQUEST_IMS_REGISTRATION_STATE: ret = responseInts(p); break;
-            case RIL_REQUEST_IMS_SEND_SMS: ret =  responseSMS(p); break;
-            case RIL_REQUEST_SIM_TRANSMIT_APDU_BASIC: ret =  responseICC_IO(p); break;
-            case RIL_REQUEST_SIM_OPEN_CHANNEL: ret  = responseInts(p); break;
-            case RIL_REQUEST_SIM_CLOSE_CHANNEL: ret  = responseVoid(p); break;
-            case RIL_REQUEST_SIM_TRANSMIT_APDU_CHANNEL: ret = responseICC_IO(p); break;
-            case RIL_REQUEST_SIM_GET_ATR: ret = responseString(p); break;
-            case RIL_REQUEST_NV_READ_ITEM: ret = responseString(p); break;
-            case RIL_REQUEST_NV_WRITE_ITEM: ret = responseVoid(p); break;
-            case RIL_REQUEST_NV_WRITE_CDMA_PRL: ret = responseVoid(p); break;
-            case RIL_REQUEST_NV_RESET_CONFIG: ret = responseVoid(p); break;
-            case RIL_REQUEST_SET_UICC_SUBSCRIPTION: ret = responseVoid(p); break;
-            case RIL_REQUEST_ALLOW_DATA: ret = responseVoid(p); break;
-            case RIL_REQUEST_GET_HARDWARE_CONFIG: ret = responseHardwareConfig(p); break;
-            case RIL_REQUEST_SIM_AUTHENTICATION: ret =  responseICC_IOBase64(p); break;
-            case RIL_REQUEST_SHUTDOWN: ret = responseVoid(p); break;
-            default:
-                throw new RuntimeException("Unrecognized solicited response: " + rr.mRequest);
-            //break;
-            }} catch (Throwable tr) {
+                ret = decoder.decode(this, p);
+            } catch (Throwable tr) {
                 // Exceptions here usually mean invalid RIL responses
 
                 Rlog.w(RILJ_LOG_TAG, rr.serialString() + "< "
@@ -367,6 +617,10 @@ public class SamsungExynos4RIL extends RIL implements CommandsInterface {
             // regardless of error code to continue shutdown procedure.
             riljLog("Response to RIL_REQUEST_SHUTDOWN received. Error is " +
                     error + " Setting Radio State to Unavailable regardless of error.");
+            // The device is going down, nothing after this is worth recording
+            if (recorder != null) {
+                recorder.close();
+            }
             setRadioState(RadioState.RADIO_UNAVAILABLE);
         }
 
@@ -417,6 +671,57 @@ public class SamsungExynos4RIL extends RIL implements CommandsInterface {
         return rr;
     }
 
+    @Override
+    protected void
+    send(RILRequest rr) {
+        PendingRequestTable pending = mPendingRequests;
+        // Without a socket the base class fails the request on the spot
+        if (pending != null && mSocket != null) {
+            pending.put(rr.mSerial, SystemClock.elapsedRealtimeNanos());
+        }
+        super.send(rr);
+    }
+
+    /*
+     * The base class also calls this when writing a request to the socket
+     * fails, which is the only way such a request leaves its list.
+     */
+    @Override
+    protected RILRequest
+    findAndRemoveRequestFromList(int serial) {
+        PendingRequestTable pending = mPendingRequests;
+        if (pending != null) {
+            pending.remove(serial);
+        }
+        return super.findAndRemoveRequestFromList(serial);
+    }
+
+    private void recordDropped(int requests) {
+        RequestLatencyStats stats = mLatencyStats;
+        if (stats != null) {
+            stats.recordDropped(requests);
+        }
+    }
+
+    /**
+     * Calls that changed in the last call list, as a mask of call indices:
+     * bit n is set when the call with index n appeared, went away or changed
+     * in any field. Calls whose bit is clear can be skipped.
+     */
+    public int getCallListChanges() {
+        CallStateTracker calls = mCallStateTracker;
+        return calls != null ? calls.getChanged() : 0;
+    }
+
+    /**
+     * Number of requests sent and not answered yet. After rild disconnects,
+     * this includes the requests the base class failed until it reconnects.
+     */
+    public int getPendingRequestCount() {
+        PendingRequestTable pending = mPendingRequests;
+        return pending != null ? pending.size() : 0;
+    }
+
     @Override
     public void
     dial(String address, int clirMode, UUSInfo uusInfo, Message result) {
@@ -467,28 +772,22 @@ public class SamsungExynos4RIL extends RIL implements CommandsInterface {
     processUnsolicited (Parcel p) {
         Object ret;
         int dataPosition = p.dataPosition();
-        int response = p.readInt();
 
-        switch (response) {
-            case RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED: ret =  responseVoid(p); break;
-            case RIL_UNSOL_RESPONSE_NEW_BROADCAST_SMS: ret = responseString(p); break;
-            case RIL_UNSOL_RIL_CONNECTED: ret = responseInts(p); break;
-            // SAMSUNG STATES
-            case RIL_UNSOL_AM: ret = responseString(p); break;
-            case RIL_UNSOL_DUN_PIN_CONTROL_SIGNAL: ret = responseVoid(p); break;
-            case RIL_UNSOL_DATA_SUSPEND_RESUME: ret = responseInts(p); break;
-            case RIL_UNSOL_STK_CALL_CONTROL_RESULT: ret = responseVoid(p); break;
-            case RIL_UNSOL_TWO_MIC_STATE: ret = responseInts(p); break;
-            case RIL_UNSOL_WB_AMR_STATE: ret = responseInts(p); break;
+        ParcelRecorder recorder = mRecorder;
+        if (recorder != null) recorder.record(p);
 
-            default:
-                // Rewind the Parcel
-                p.setDataPosition(dataPosition);
+        int response = p.readInt();
 
-                // Forward responses that we are not overriding to the super class
-                super.processUnsolicited(p);
-                return;
+        ResponseDecoder decoder = sUnsolicitedDecoders.get(response);
+        if (decoder == null) {
+            // Rewind the Parcel
+            p.setDataPosition(dataPosition);
+
+            // Forward responses that we are not overriding to the super class
+            super.processUnsolicited(p);
+            return;
         }
+        ret = decoder.decode(this, p);
 
         switch (response) {
             case RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED:
@@ -531,6 +830,18 @@ public class SamsungExynos4RIL extends RIL implements CommandsInterface {
             case RIL_UNSOL_RIL_CONNECTED:
                 if (RILJ_LOGD) unsljLogRet(response, ret);
 
+                // Nothing sent to a previous rild instance will be answered
+                PendingRequestTable pending = mPendingRequests;
+                if (pending != null) {
+                    recordDropped(pending.clear());
+                }
+                CallStateTracker calls = mCallStateTracker;
+                if (calls != null) {
+                    calls.reset();
+                }
+                // A new rild usually means the modem and audio path were reset too
+                resetAudioParameters();
+
                 // Initial conditions
                 setRadioPower(false, null);
                 setCdmaSubscriptionSource(mCdmaSubscription, null);
@@ -539,15 +850,7 @@ public class SamsungExynos4RIL extends RIL implements CommandsInterface {
             // SAMSUNG STATES
             case RIL_UNSOL_AM:
                 if (RILJ_LOGD) samsungUnsljLogRet(response, ret);
-                String amString = (String) ret;
-                Rlog.d(RILJ_LOG_TAG, "Executing AM: " + amString);
-
-                try {
-                    Runtime.getRuntime().exec("am " + amString);
-                } catch (IOException e) {
-                   e.printStackTrace();
-                    Rlog.e(RILJ_LOG_TAG, "am " + amString + " could not be executed.");
-                }
+                getAmDispatcher().dispatch((String) ret);
                 break;
             case RIL_UNSOL_DUN_PIN_CONTROL_SIGNAL:
                 if (RILJ_LOGD) samsungUnsljLogRet(response, ret);
@@ -560,11 +863,16 @@ public class SamsungExynos4RIL extends RIL implements CommandsInterface {
                 break;
             case RIL_UNSOL_TWO_MIC_STATE:
                 if (RILJ_LOGD) samsungUnsljLogRet(response, ret);
+                setTwoMic(((int[])ret)[0]);
                 break;
             case RIL_UNSOL_WB_AMR_STATE:
                 if (RILJ_LOGD) samsungUnsljLogRet(response, ret);
                 setWbAmr(((int[])ret)[0]);
                 break;
+            default:
+                // Registered through registerUnsolicitedDecoder(), nothing more to do
+                if (RILJ_LOGD) samsungUnsljLogRet(response, ret);
+                break;
         }
     }
 
@@ -605,12 +913,17 @@ public class SamsungExynos4RIL extends RIL implements CommandsInterface {
      * @param state: 0 = unsupported, 1 = supported.
      */
     private void setWbAmr(int state) {
-        if (state == 1) {
-            Rlog.d(RILJ_LOG_TAG, "setWbAmr(): setting audio parameter - wb_amr=on");
-            audioManager.setParameters("wb_amr=on");
-        } else {
-            Rlog.d(RILJ_LOG_TAG, "setWbAmr(): setting audio parameter - wb_amr=off");
-            audioManager.setParameters("wb_amr=off");
+        getAudioParameters().set(AUDIO_PARAM_WB_AMR, state == 1 ? "on" : "off");
+    }
+
+    /**
+     * Set the two-mic audio parameter named by ro.ril.two_mic_param, if any.
+     *
+     * @param state: 0 = off, 1 = on.
+     */
+    private void setTwoMic(int state) {
+        if (!TWO_MIC_PARAMETER.isEmpty()) {
+            getAudioParameters().set(AUDIO_PARAM_TWO_MIC, state == 1 ? "on" : "off");
         }
     }
 
@@ -621,23 +934,27 @@ public class SamsungExynos4RIL extends RIL implements CommandsInterface {
         boolean isVideo;
         ArrayList<DriverCall> response;
         DriverCall dc;
-        int dataAvail = p.dataAvail();
-        int pos = p.dataPosition();
-        int size = p.dataSize();
-
-        Rlog.d(RILJ_LOG_TAG, "Parcel size = " + size);
-        Rlog.d(RILJ_LOG_TAG, "Parcel pos = " + pos);
-        Rlog.d(RILJ_LOG_TAG, "Parcel dataAvail = " + dataAvail);
+        RilTracer tracer = mTracer;
+        boolean trace = tracer != null && tracer.isEnabled(RilTracer.LEVEL_SUMMARY);
+        boolean traceCalls = tracer != null && tracer.isEnabled(RilTracer.LEVEL_VERBOSE);
 
         //Samsung changes
         num = p.readInt();
-
-        Rlog.d(RILJ_LOG_TAG, "num = " + num);
-        response = new ArrayList<DriverCall>(num);
+        if (num == 0) {
+            // The HAL drops wb_amr at the end of a call, the next one must set it again
+            resetAudioParameters();
+        }
+        if (trace) {
+            // Parcel state as it was before the count was read
+            tracer.record(RilTracer.EVENT_CALL_LIST, p.dataSize(), p.dataPosition() - 4,
+                    p.dataAvail() + 4, num);
+        }
+        CallListPool pool = mCallListPool;
+        response = pool != null ? pool.startList(num) : new ArrayList<DriverCall>(num);
 
         for (int i = 0 ; i < num ; i++) {
 
-            dc                      = new DriverCall();
+            dc                      = pool != null ? pool.obtainCall(i) : new DriverCall();
             dc.state                = DriverCall.stateFromCLCC(p.readInt());
             dc.index                = p.readInt();
             dc.TOA                  = p.readInt();
@@ -647,63 +964,100 @@ public class SamsungExynos4RIL extends RIL implements CommandsInterface {
             dc.isVoice              = (0 != p.readInt());
             isVideo                 = (0 != p.readInt());
             dc.isVoicePrivacy       = (0 != p.readInt());
-            dc.number               = p.readString();
+            dc.number               = pool != null
+                    ? pool.readNumber(p, dc.index, dc.TOA) : p.readString();
             int np                  = p.readInt();
             dc.numberPresentation   = DriverCall.presentationFromCLIP(np);
-            dc.name                 = p.readString();
+            dc.name                 = pool != null ? pool.readName(p, dc.index) : p.readString();
             dc.namePresentation     = p.readInt();
             int uusInfoPresent      = p.readInt();
 
-            Rlog.d(RILJ_LOG_TAG, "state = " + dc.state);
-            Rlog.d(RILJ_LOG_TAG, "index = " + dc.index);
-            Rlog.d(RILJ_LOG_TAG, "state = " + dc.TOA);
-            Rlog.d(RILJ_LOG_TAG, "isMpty = " + dc.isMpty);
-            Rlog.d(RILJ_LOG_TAG, "isMT = " + dc.isMT);
-            Rlog.d(RILJ_LOG_TAG, "als = " + dc.als);
-            Rlog.d(RILJ_LOG_TAG, "isVoice = " + dc.isVoice);
-            Rlog.d(RILJ_LOG_TAG, "isVideo = " + isVideo);
-            Rlog.d(RILJ_LOG_TAG, "number = " + dc.number);
-            Rlog.d(RILJ_LOG_TAG, "np = " + np);
-            Rlog.d(RILJ_LOG_TAG, "name = " + dc.name);
-            Rlog.d(RILJ_LOG_TAG, "namePresentation = " + dc.namePresentation);
-            Rlog.d(RILJ_LOG_TAG, "uusInfoPresent = " + uusInfoPresent);
+            if (traceCalls) {
+                int flags = (dc.isMpty ? RilTracer.CALL_FLAG_MPTY : 0)
+                        | (dc.isMT ? RilTracer.CALL_FLAG_MT : 0)
+                        | (dc.isVoice ? RilTracer.CALL_FLAG_VOICE : 0)
+                        | (isVideo ? RilTracer.CALL_FLAG_VIDEO : 0)
+                        | (dc.isVoicePrivacy ? RilTracer.CALL_FLAG_VOICE_PRIVACY : 0);
+                tracer.record(RilTracer.EVENT_CALL,
+                        dc.state.ordinal() | (dc.index & 0xff) << 8 | flags << 16,
+                        dc.TOA,
+                        (dc.als & 0xffff) | (long) np << 16,
+                        (dc.namePresentation & 0xffff) | (long) uusInfoPresent << 16);
+            }
 
             if (uusInfoPresent == 1) {
-                dc.uusInfo = new UUSInfo();
+                dc.uusInfo = pool != null ? pool.obtainUusInfo(i) : new UUSInfo();
                 dc.uusInfo.setType(p.readInt());
                 dc.uusInfo.setDcs(p.readInt());
                 byte[] userData = p.createByteArray();
                 dc.uusInfo.setUserData(userData);
-                Rlog.v(RILJ_LOG_TAG, String.format("Incoming UUS : type=%d, dcs=%d, length=%d",
-                        dc.uusInfo.getType(), dc.uusInfo.getDcs(),
-                        dc.uusInfo.getUserData().length));
-                Rlog.v(RILJ_LOG_TAG, "Incoming UUS : data (string)="
-                        + new String(dc.uusInfo.getUserData()));
-                Rlog.v(RILJ_LOG_TAG, "Incoming UUS : data (hex): "
-                        + IccUtils.bytesToHexString(dc.uusInfo.getUserData()));
-            } else {
-                Rlog.v(RILJ_LOG_TAG, "Incoming UUS : NOT present!");
-           }
+                if (traceCalls) {
+                    tracer.record(RilTracer.EVENT_UUS, dc.uusInfo.getType(),
+                            dc.uusInfo.getDcs(), userData != null ? userData.length : -1, 0);
+                }
+            }
 
             // Make sure there's a leading + on addresses with a TOA of 145
-            dc.number = PhoneNumberUtils.stringFromStringAndTOA(dc.number, dc.TOA);
+            // (the pool already did while reading the number)
+            if (pool == null) {
+                dc.number = PhoneNumberUtils.stringFromStringAndTOA(dc.number, dc.TOA);
+            }
 
             response.add(dc);
+        }
 
-            if (dc.isVoicePrivacy) {
+        CallStateTracker calls = mCallStateTracker;
+        int privacy = CallStateTracker.PRIVACY_UNCHANGED;
+        if (calls != null) {
+            calls.update(response);
+            // Tell registrants about voice privacy only when it flips, not on every poll
+            privacy = calls.updateVoicePrivacy(response);
+        }
+        if (privacy != CallStateTracker.PRIVACY_UNCHANGED) {
+            if (privacy == CallStateTracker.PRIVACY_ON) {
                 mVoicePrivacyOnRegistrants.notifyRegistrants();
-                Rlog.d(RILJ_LOG_TAG, "InCall VoicePrivacy is enabled");
             } else {
                 mVoicePrivacyOffRegistrants.notifyRegistrants();
-                Rlog.d(RILJ_LOG_TAG, "InCall VoicePrivacy is disabled");
+            }
+            if (trace) {
+                tracer.record(RilTracer.EVENT_VOICE_PRIVACY, response.get(num - 1).index,
+                        privacy == CallStateTracker.PRIVACY_ON ? 1 : 0, 0, 0);
             }
         }
 
-        Collections.sort(response);
+        if (pool != null) {
+            CallListPool.sortByIndex(response);
+        } else {
+            Collections.sort(response);
+        }
 
         return response;
     }
 
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        super.dump(fd, pw, args);
+        pw.println("SamsungExynos4RIL:");
+        PendingRequestTable pending = mPendingRequests;
+        RequestLatencyStats stats = mLatencyStats;
+        RilTracer tracer = mTracer;
+        ParcelRecorder recorder = mRecorder;
+        if (pending != null) {
+            pw.println(" pending requests=" + pending.size());
+        }
+        if (stats != null) {
+            stats.dump(pw, pending == null ? 0 : pending.countSentBefore(
+                    SystemClock.elapsedRealtimeNanos() - stats.getTimeoutNs()));
+        }
+        if (tracer != null) {
+            tracer.dump(pw);
+        }
+        if (recorder != null) {
+            recorder.flush();
+            pw.println(" parcel recording: " + recorder.getState());
+        }
+    }
+
     @Override
     protected Object responseGetPreferredNetworkType(Parcel p) {
         int [] response = (int[]) responseInts(p);